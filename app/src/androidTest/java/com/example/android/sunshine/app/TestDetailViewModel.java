@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Loads a day the way the detail pane does and checks it comes back formatted just as the
+    fragment used to format it on the main thread.
+ */
+public class TestDetailViewModel extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteWeatherAndLocations(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteWeatherAndLocations(mContext);
+        super.tearDown();
+    }
+
+    public void testLoadInBackground() {
+        long date = WeatherContract.normalizeDate(System.currentTimeMillis());
+        TestUtilities.insertNorthPoleForecast(mContext, date, 1);
+
+        DetailViewModelLoader loader = new DetailViewModelLoader(mContext,
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, date));
+        DetailViewModel viewModel = loader.loadInBackground();
+        assertNotNull("Error: The day should have been loaded", viewModel);
+
+        String description = Utility.getStringForWeatherCondition(mContext, 321);
+        assertEquals(321, viewModel.weatherId);
+        assertEquals(Utility.getFullFriendlyDayString(mContext, date), viewModel.dateText);
+        assertEquals(description, viewModel.description);
+        assertEquals(mContext.getString(R.string.a11y_forecast, description),
+                viewModel.descriptionA11y);
+        assertEquals(mContext.getString(R.string.a11y_forecast_icon, description),
+                viewModel.iconDescription);
+
+        String high = Utility.formatTemperature(mContext, 75);
+        assertEquals(high, viewModel.highText);
+        assertEquals(mContext.getString(R.string.a11y_high_temp, high), viewModel.highA11y);
+
+        String humidity = mContext.getString(R.string.format_humidity, 1.2f);
+        assertEquals(humidity, viewModel.humidityText);
+        assertEquals(mContext.getString(R.string.a11y_humidity, humidity), viewModel.humidityA11y);
+        assertEquals(Utility.getFormattedWind(mContext, 5.5f, 1.1f), viewModel.windText);
+        assertEquals(mContext.getString(R.string.format_pressure, 1.3f), viewModel.pressureText);
+        assertEquals(Utility.getArtResourceForWeatherCondition(321), viewModel.artResourceId);
+    }
+
+    public void testMissingDay() {
+        DetailViewModelLoader loader = new DetailViewModelLoader(mContext,
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        System.currentTimeMillis()));
+        assertNull("Error: A day that isn't there should load as null", loader.loadInBackground());
+    }
+}
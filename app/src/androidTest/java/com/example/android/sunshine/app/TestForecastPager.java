@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.concurrent.Callable;
+
+/*
+    Pages through a long forecast the way the forecast list does, and compares it against
+    reading the whole range in one cursor.
+ */
+public class TestForecastPager extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastPager.class.getSimpleName();
+
+    private static final int ROW_COUNT = 5000;
+    private static final long MILLIS_IN_A_DAY = 1000 * 60 * 60 * 24;
+
+    private int mRowsChanged;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteWeatherAndLocations(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteWeatherAndLocations(mContext);
+        super.tearDown();
+    }
+
+    public void testPagingLongForecast() throws Exception {
+        final long startDate = WeatherContract.normalizeDate(System.currentTimeMillis());
+        TestUtilities.insertNorthPoleForecast(mContext, startDate, ROW_COUNT);
+
+        // The way the list used to read it: everything from today in one cursor
+        long startNanos = System.nanoTime();
+        Cursor fullCursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        startDate),
+                ForecastFragment.FORECAST_COLUMNS,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(ROW_COUNT, fullCursor.getCount());
+        long fullMicros = (System.nanoTime() - startNanos) / 1000;
+        fullCursor.close();
+
+        // The first window, as the loader reads it now
+        startNanos = System.nanoTime();
+        final Cursor firstWindow = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWindow(TestUtilities.TEST_LOCATION, startDate,
+                        ForecastPager.WINDOW_SIZE),
+                ForecastFragment.FORECAST_COLUMNS,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(ForecastPager.WINDOW_SIZE, firstWindow.getCount());
+        long firstWindowMicros = (System.nanoTime() - startNanos) / 1000;
+
+        final ForecastPager pager = TestUtilities.callOnMainThread(new Callable<ForecastPager>() {
+            @Override
+            public ForecastPager call() {
+                ForecastPager pager = new ForecastPager(mContext, new ForecastPager.Listener() {
+                    @Override
+                    public void onRowsInserted(int positionStart, int itemCount) {
+                    }
+
+                    @Override
+                    public void onRowsChanged(int positionStart, int itemCount) {
+                        mRowsChanged += itemCount;
+                    }
+                });
+                pager.reset(firstWindow);
+                return pager;
+            }
+        });
+        firstWindow.close();
+
+        // Bind every row in order, as a list being scrolled to the bottom would, waiting for
+        // the next window whenever we catch up with it
+        startNanos = System.nanoTime();
+        int position = 0;
+        int maxCachedRows = 0;
+        final long[] lastDate = {0};
+        while (position < ROW_COUNT) {
+            final int firstToBind = position;
+            int[] bound = TestUtilities.callOnMainThread(new Callable<int[]>() {
+                @Override
+                public int[] call() {
+                    int position = firstToBind;
+                    for (; position < pager.getCount(); position++) {
+                        ForecastPager.Window window = pager.getWindow(position);
+                        assertNotNull("Error: A row just paged in should still be held", window);
+                        long date = window.getDate(ForecastPager.getRowInWindow(position));
+                        assertTrue("Error: Rows should be paged in date order, once each",
+                                date > lastDate[0]);
+                        lastDate[0] = date;
+                    }
+                    return new int[]{position, pager.getCachedRowCount()};
+                }
+            });
+            position = bound[0];
+            maxCachedRows = Math.max(maxCachedRows, bound[1]);
+            if (position < ROW_COUNT) {
+                final int waitingFor = position;
+                PollingCheck.check("Error: The next window was never paged in", 5000,
+                        new Callable<Boolean>() {
+                            @Override
+                            public Boolean call() throws Exception {
+                                return TestUtilities.callOnMainThread(new Callable<Boolean>() {
+                                    @Override
+                                    public Boolean call() {
+                                        return pager.getCount() > waitingFor;
+                                    }
+                                });
+                            }
+                        });
+            }
+        }
+        long pagedMicros = (System.nanoTime() - startNanos) / 1000;
+
+        Log.d(LOG_TAG, "Reading " + ROW_COUNT + " rows in one cursor took " + fullMicros
+                + "us, the first window took " + firstWindowMicros + "us and paging through all "
+                + "of them took " + pagedMicros + "us, holding at most " + maxCachedRows + " rows");
+
+        // The forecast is a whole number of windows, so the end is only found once the empty
+        // window after the last row comes back
+        PollingCheck.check("Error: The pager should have found the end of the forecast", 5000,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return TestUtilities.callOnMainThread(new Callable<Boolean>() {
+                            @Override
+                            public Boolean call() {
+                                return pager.isEndReached() && pager.getCount() == ROW_COUNT;
+                            }
+                        });
+                    }
+                });
+        assertTrue("Error: The pager held more rows than its ceiling",
+                maxCachedRows <= ForecastPager.MAX_CACHED_ROWS);
+
+        // Scrolling back to the top has to page the evicted first window back in
+        ForecastPager.Window evicted =
+                TestUtilities.callOnMainThread(new Callable<ForecastPager.Window>() {
+                    @Override
+                    public ForecastPager.Window call() {
+                        return pager.getWindow(0);
+                    }
+                });
+        assertNull("Error: The first window should have been evicted", evicted);
+        PollingCheck.check("Error: The first window was never paged back in", 5000,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return TestUtilities.callOnMainThread(new Callable<Boolean>() {
+                            @Override
+                            public Boolean call() {
+                                return mRowsChanged == ForecastPager.WINDOW_SIZE;
+                            }
+                        });
+                    }
+                });
+    }
+
+    public void testGetPositionForDate() throws Exception {
+        final long startDate = WeatherContract.normalizeDate(System.currentTimeMillis());
+        TestUtilities.insertNorthPoleForecast(mContext, startDate, ForecastPager.WINDOW_SIZE * 2);
+
+        final Cursor firstWindow = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWindow(TestUtilities.TEST_LOCATION, startDate,
+                        ForecastPager.WINDOW_SIZE),
+                ForecastFragment.FORECAST_COLUMNS,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        final long[] dates = new long[firstWindow.getCount()];
+        for (int i = 0; firstWindow.moveToPosition(i); i++) {
+            dates[i] = firstWindow.getLong(ForecastFragment.COL_WEATHER_DATE);
+        }
+
+        TestUtilities.callOnMainThread(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ForecastPager pager = new ForecastPager(mContext, new ForecastPager.Listener() {
+                    @Override
+                    public void onRowsInserted(int positionStart, int itemCount) {
+                    }
+
+                    @Override
+                    public void onRowsChanged(int positionStart, int itemCount) {
+                    }
+                });
+                pager.reset(firstWindow);
+
+                for (int i = 0; i < dates.length; i++) {
+                    assertEquals("Error: Wrong position for the date of row " + i,
+                            i, pager.getPositionForDate(dates[i]));
+                }
+                assertEquals("Error: A date before the forecast shouldn't have a position",
+                        RecyclerView.NO_POSITION, pager.getPositionForDate(startDate - MILLIS_IN_A_DAY));
+                assertEquals("Error: A date which isn't a row shouldn't have a position",
+                        RecyclerView.NO_POSITION, pager.getPositionForDate(dates[3] + 1));
+                assertEquals("Error: A date in a window not paged in yet shouldn't have a position",
+                        RecyclerView.NO_POSITION,
+                        pager.getPositionForDate(dates[dates.length - 1] + MILLIS_IN_A_DAY));
+
+                assertTrue("Error: A date before the forecast is known not to be there",
+                        pager.isWindowForDateHeld(startDate - MILLIS_IN_A_DAY));
+                assertTrue("Error: A missing date in a window held is known not to be there",
+                        pager.isWindowForDateHeld(dates[3] + 1));
+                assertFalse("Error: A date in a window not paged in yet could still be there",
+                        pager.isWindowForDateHeld(dates[dates.length - 1] + MILLIS_IN_A_DAY));
+                return null;
+            }
+        });
+        firstWindow.close();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherProvider;
+
+import java.util.concurrent.Callable;
+
+/*
+    Selects one day after another from the forecast shared by the list, the way the two-pane
+    detail does, and counts the provider queries it costs.
+ */
+public class TestForecastRepository extends AndroidTestCase {
+
+    private static final int ROW_COUNT = 14;
+
+    private int mChanges;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteWeatherAndLocations(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteWeatherAndLocations(mContext);
+        super.tearDown();
+    }
+
+    public void testSelectionWithoutQueries() throws Exception {
+        final long startDate = WeatherContract.normalizeDate(System.currentTimeMillis());
+        TestUtilities.insertNorthPoleForecast(mContext, startDate, ROW_COUNT);
+
+        // What the list's loader hands over
+        final Cursor firstWindow = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWindow(TestUtilities.TEST_LOCATION, startDate,
+                        ForecastPager.WINDOW_SIZE),
+                ForecastFragment.FORECAST_COLUMNS,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        final long[] dates = new long[firstWindow.getCount()];
+        for (int i = 0; firstWindow.moveToPosition(i); i++) {
+            dates[i] = firstWindow.getLong(ForecastFragment.COL_WEATHER_DATE);
+        }
+
+        final int queriesBefore = WeatherProvider.getQueryCount();
+        TestUtilities.callOnMainThread(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ForecastRepository repository = new ForecastRepository(mContext);
+                repository.addObserver(new ForecastRepository.Observer() {
+                    @Override
+                    public void onForecastChanged() {
+                        mChanges++;
+                    }
+                });
+                repository.reset(firstWindow);
+                assertEquals("Error: Observers should hear about the forecast being loaded",
+                        1, mChanges);
+
+                // Select every day in turn, as tapping down the list would
+                for (int i = 0; i < dates.length; i++) {
+                    ForecastPager.Window window =
+                            repository.getWindowForDate(TestUtilities.TEST_LOCATION, dates[i]);
+                    assertNotNull("Error: The repository should hold the day at row " + i, window);
+                    int row = window.getRowForDate(dates[i]);
+                    assertEquals(1.2f, window.getHumidity(row));
+                    assertEquals(1.3f, window.getPressure(row));
+                    assertEquals(5.5f, window.getWindSpeed(row));
+                    assertEquals(1.1f, window.getDegrees(row));
+                }
+
+                assertNull("Error: Another location's forecast should not be served",
+                        repository.getWindowForDate("94043", dates[0]));
+                return null;
+            }
+        });
+        firstWindow.close();
+
+        assertEquals("Error: Changing the selection should not query the provider",
+                0, WeatherProvider.getQueryCount() - queriesBefore);
+    }
+}
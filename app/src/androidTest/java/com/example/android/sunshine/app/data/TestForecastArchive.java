@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Tests for the forecast archive: the revision encoding on its own, and archiving through the
+    provider's forecast commit.
+ */
+public class TestForecastArchive extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastArchive.class.getSimpleName();
+
+    private static final long MILLIS_IN_A_MINUTE = 1000 * 60;
+    private static final long MILLIS_IN_A_DAY = MILLIS_IN_A_MINUTE * 60 * 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        // The archive isn't writable through the provider, so clear it directly
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        dbHelper.getWritableDatabase().delete(WeatherContract.ArchiveEntry.TABLE_NAME, null, null);
+        dbHelper.close();
+    }
+
+    public void testRevisionRoundTrip() {
+        long revisionTime = 1419033600000L;
+        int[] first = ForecastArchiveCodec.quantize(TestUtilities.createWeatherValues(1));
+        byte[] chain = ForecastArchiveCodec.append(null, revisionTime, first);
+        assertNotNull("Error: The first revision should always be stored", chain);
+
+        // Same forecast three hours later, nothing to store
+        assertNull("Error: An unchanged revision should not be stored",
+                ForecastArchiveCodec.append(chain, revisionTime + 180 * MILLIS_IN_A_MINUTE, first));
+
+        ContentValues changedValues = TestUtilities.createWeatherValues(1);
+        changedValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 73.4);
+        changedValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 500);
+        int[] second = ForecastArchiveCodec.quantize(changedValues);
+        int keyframeLength = chain.length;
+        chain = ForecastArchiveCodec.append(chain, revisionTime + 360 * MILLIS_IN_A_MINUTE, second);
+        assertTrue("Error: A delta with two changed fields should only take a few bytes",
+                chain.length - keyframeLength <= 6);
+
+        List<ForecastArchiveCodec.Revision> revisions = ForecastArchiveCodec.decode(chain);
+        assertEquals(2, revisions.size());
+        assertTrue(Arrays.equals(first, revisions.get(0).fields));
+        assertTrue(Arrays.equals(second, revisions.get(1).fields));
+        assertEquals(revisionTime, revisions.get(0).timeMillis);
+        assertEquals(revisionTime + 360 * MILLIS_IN_A_MINUTE, revisions.get(1).timeMillis);
+        assertEquals(73.4, revisions.get(1).getValue(ForecastArchiveCodec.FIELD_MAX_TEMP), 0.001);
+    }
+
+    /*
+        Simulates a year of syncs every three hours for several locations, each updating a two
+        week forecast, and checks the archived chains fit in a few megabytes.
+     */
+    public void testYearOfHistorySize() {
+        final int locations = 5;
+        final int forecastDays = 14;
+        final int syncsPerDay = 8;
+        Random random = new Random(42);
+
+        long totalBytes = 0;
+        for (int location = 0; location < locations; location++) {
+            for (int day = 0; day < 366; day++) {
+                int[] fields = {800, 120, 240, 70, 10130, 45, 180};
+                byte[] chain = null;
+                long revisionTime = 1419033600000L + (day - forecastDays) * MILLIS_IN_A_DAY;
+                for (int sync = 0; sync < forecastDays * syncsPerDay; sync++) {
+                    revisionTime += MILLIS_IN_A_DAY / syncsPerDay;
+                    // Most syncs nudge a couple of values, some change nothing
+                    fields = fields.clone();
+                    for (int change = random.nextInt(3); change > 0; change--) {
+                        fields[random.nextInt(ForecastArchiveCodec.FIELD_COUNT)] += random.nextInt(21) - 10;
+                    }
+                    byte[] appended = ForecastArchiveCodec.append(chain, revisionTime, fields);
+                    if (appended != null) {
+                        chain = appended;
+                    }
+                }
+                totalBytes += chain.length;
+            }
+        }
+        Log.d(LOG_TAG, "A year of archived forecasts for " + locations + " locations takes "
+                + totalBytes + " bytes");
+        assertTrue("Error: A year of archive for several locations should fit in a few megabytes",
+                totalBytes < 2 * 1024 * 1024);
+    }
+
+    public void testArchiveThroughCommit() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+
+        commitForecast(locationValues, TestUtilities.createWeatherValues(-1));
+        // Unchanged, should not add a revision
+        commitForecast(locationValues, TestUtilities.createWeatherValues(-1));
+        ContentValues changedValues = TestUtilities.createWeatherValues(-1);
+        changedValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 61.5);
+        commitForecast(locationValues, changedValues);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.ArchiveEntry.buildArchiveLocationWithDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: Expected one archived revision per changed forecast", 2, cursor.getCount());
+        int minTempIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(65, cursor.getDouble(minTempIndex), 0.001);
+        assertTrue(cursor.moveToNext());
+        assertEquals(61.5, cursor.getDouble(minTempIndex), 0.001);
+        cursor.close();
+    }
+
+    private void commitForecast(ContentValues locationValues, ContentValues weatherValues) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.KEY_LOCATION, locationValues);
+        extras.putParcelableArray(WeatherContract.KEY_FORECAST, new ContentValues[]{weatherValues});
+        extras.putLong(WeatherContract.KEY_PRUNE_DATE, 0);
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_COMMIT_FORECAST, null, extras);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks the typed forecast reads match what the ContentResolver returns, and compares how
+    long each takes for the Today widget's read.
+ */
+public class TestForecastRecord extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastRecord.class.getSimpleName();
+
+    private static final long MILLIS_IN_A_DAY = 1000 * 60 * 60 * 24;
+    private static final int BENCHMARK_CALLS = 500;
+
+    // The projection the Today widget used to read through the ContentResolver
+    private static final String[] TODAY_WIDGET_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestProvider.createBulkInsertWeatherValues(ContentUris.parseId(locationUri)));
+    }
+
+    public void testReadForecastRecord() {
+        ForecastRecord first = ForecastRecord.getFirstFromDate(mContext,
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE - MILLIS_IN_A_DAY);
+        assertNotNull("Error: Expected the first forecast after the start date", first);
+        assertEquals(WeatherContract.normalizeDate(TestUtilities.TEST_DATE), first.date);
+        assertEquals(321, first.weatherId);
+        assertEquals(75, first.high, 0.001);
+        assertEquals(65, first.low, 0.001);
+        assertEquals("Asteroids", first.shortDesc);
+
+        ForecastRecord third = ForecastRecord.getForDate(mContext,
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE + 2 * MILLIS_IN_A_DAY);
+        assertNotNull("Error: Expected the forecast on the given day", third);
+        assertEquals(77, third.high, 0.001);
+        assertEquals(63, third.low, 0.001);
+
+        assertNull("Error: There is no forecast for an unknown location",
+                ForecastRecord.getFirstFromDate(mContext, "nowhere", TestUtilities.TEST_DATE));
+        assertNull("Error: There is no forecast after the last day",
+                ForecastRecord.getForDate(mContext, TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE + 30 * MILLIS_IN_A_DAY));
+    }
+
+    public void testUnpackDescriptionWithCommas() {
+        ForecastRecord record = ForecastRecord.unpack("1419033600000,502,12.5,-3.25,Rain, heavy");
+        assertEquals(1419033600000L, record.date);
+        assertEquals(502, record.weatherId);
+        assertEquals(12.5, record.high, 0.001);
+        assertEquals(-3.25, record.low, 0.001);
+        assertEquals("Rain, heavy", record.shortDesc);
+    }
+
+    public void testTodayWidgetReadLatency() {
+        // Warm both paths up so neither pays for opening the database or compiling statements
+        readThroughResolver();
+        ForecastRecord.getFirstFromDate(mContext, TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+
+        long startNanos = System.nanoTime();
+        double resolverHigh = 0;
+        for (int i = 0; i < BENCHMARK_CALLS; i++) {
+            resolverHigh = readThroughResolver();
+        }
+        long resolverMicros = (System.nanoTime() - startNanos) / 1000 / BENCHMARK_CALLS;
+
+        startNanos = System.nanoTime();
+        ForecastRecord record = null;
+        for (int i = 0; i < BENCHMARK_CALLS; i++) {
+            record = ForecastRecord.getFirstFromDate(mContext, TestUtilities.TEST_LOCATION,
+                    TestUtilities.TEST_DATE);
+        }
+        long recordMicros = (System.nanoTime() - startNanos) / 1000 / BENCHMARK_CALLS;
+
+        Log.d(LOG_TAG, "Reading today's forecast took " + resolverMicros
+                + "us per call through the ContentResolver and " + recordMicros
+                + "us per call as a ForecastRecord");
+        assertNotNull(record);
+        assertEquals("Error: Both reads should return the same forecast",
+                resolverHigh, record.high, 0.001);
+    }
+
+    private double readThroughResolver() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                TODAY_WIDGET_COLUMNS,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertTrue(cursor.moveToFirst());
+            cursor.getInt(0);
+            cursor.getString(1);
+            cursor.getDouble(3);
+            return cursor.getDouble(2);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+/*
+    Writes and reads back the cold start snapshot, and compares reading it with the first query
+    the list's loader makes.
+ */
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastSnapshot.class.getSimpleName();
+
+    private static final long MILLIS_IN_A_DAY = 1000 * 60 * 60 * 24;
+    // Snapshot dates are normalized, like the date the list reads from
+    private static final long FROM_DATE = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getSnapshotFile().delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getSnapshotFile().delete();
+        super.tearDown();
+    }
+
+    private File getSnapshotFile() {
+        return new File(mContext.getFilesDir(), ForecastSnapshot.FILE_NAME);
+    }
+
+    public void testWriteAndRead() {
+        ContentValues[] forecast = TestProvider.createBulkInsertWeatherValues(0);
+        assertTrue(ForecastSnapshot.write(mContext, TestUtilities.TEST_LOCATION, 64.7488,
+                -147.353, forecast));
+
+        ForecastSnapshot snapshot = ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION,
+                FROM_DATE);
+        assertNotNull("Error: The snapshot just written should be readable", snapshot);
+        assertEquals(forecast.length, snapshot.size());
+        assertEquals(TestUtilities.TEST_LOCATION, snapshot.getLocationSetting());
+        assertEquals(64.7488, snapshot.getCoordLat(), 0.0001);
+        assertEquals(-147.353, snapshot.getCoordLong(), 0.0001);
+        for (int row = 0; row < forecast.length; row++) {
+            ContentValues values = forecast[row];
+            assertEquals(WeatherContract.normalizeDate(values.getAsLong(WeatherEntry.COLUMN_DATE)),
+                    snapshot.getDate(row));
+            assertEquals((int) values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    snapshot.getWeatherId(row));
+            assertEquals(values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), snapshot.getHigh(row), 0.001);
+            assertEquals(values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP), snapshot.getLow(row), 0.001);
+            assertEquals(values.getAsFloat(WeatherEntry.COLUMN_HUMIDITY), snapshot.getHumidity(row), 0.001);
+            assertEquals(values.getAsFloat(WeatherEntry.COLUMN_PRESSURE), snapshot.getPressure(row), 0.001);
+            assertEquals(values.getAsFloat(WeatherEntry.COLUMN_WIND_SPEED), snapshot.getWindSpeed(row), 0.001);
+            assertEquals(values.getAsFloat(WeatherEntry.COLUMN_DEGREES), snapshot.getDegrees(row), 0.001);
+        }
+
+        // A few days later the days which have passed are left out
+        ForecastSnapshot later = ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION,
+                snapshot.getDate(3));
+        assertEquals(forecast.length - 3, later.size());
+        assertEquals(snapshot.getDate(3), later.getDate(0));
+        assertEquals(snapshot.getHigh(3), later.getHigh(0), 0.001);
+        assertEquals(snapshot.getDegrees(forecast.length - 1),
+                later.getDegrees(later.size() - 1), 0.001);
+
+        assertNull("Error: A snapshot with every day passed should be ignored",
+                ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION,
+                        snapshot.getDate(forecast.length - 1) + MILLIS_IN_A_DAY));
+        assertNull("Error: A snapshot for another location should be ignored",
+                ForecastSnapshot.read(mContext, "94043", FROM_DATE));
+    }
+
+    public void testDamagedSnapshot() throws Exception {
+        assertNull("Error: There should be nothing to read before a sync",
+                ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION, FROM_DATE));
+
+        ForecastSnapshot.write(mContext, TestUtilities.TEST_LOCATION, 64.7488, -147.353,
+                TestProvider.createBulkInsertWeatherValues(0));
+        File file = getSnapshotFile();
+        long length = file.length();
+
+        // Cut short, as if the device died mid write without the rename protecting it
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.getChannel().truncate(length / 2);
+        out.close();
+        assertNull("Error: A truncated snapshot should be ignored",
+                ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION, FROM_DATE));
+
+        out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+        out.close();
+        assertNull("Error: A file which isn't a snapshot should be ignored",
+                ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION, FROM_DATE));
+    }
+
+    public void testTimeToFirstRows() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues[] forecast = TestProvider.createBulkInsertWeatherValues(
+                ContentUris.parseId(locationUri));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+        ForecastSnapshot.write(mContext, TestUtilities.TEST_LOCATION, 64.7488, -147.353, forecast);
+
+        // Both cold, as on launch: the provider's database is closed again first
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        ((WeatherProvider) client.getLocalContentProvider()).shutdown();
+        client.release();
+
+        long startNanos = System.nanoTime();
+        ForecastSnapshot snapshot = ForecastSnapshot.read(mContext, TestUtilities.TEST_LOCATION,
+                FROM_DATE);
+        long snapshotMicros = (System.nanoTime() - startNanos) / 1000;
+
+        startNanos = System.nanoTime();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        FROM_DATE),
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        int queriedRows = cursor.getCount();
+        cursor.close();
+        long queryMicros = (System.nanoTime() - startNanos) / 1000;
+
+        Log.d(LOG_TAG, "First rows took " + snapshotMicros + "us from the snapshot and "
+                + queryMicros + "us from the provider");
+        assertNotNull(snapshot);
+        assertEquals("Error: The snapshot should hold the rows the provider returns",
+                queriedRows, snapshot.size());
+    }
+}
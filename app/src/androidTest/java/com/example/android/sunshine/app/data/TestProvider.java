@@ -24,6 +24,7 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
@@ -512,4 +513,170 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        This test inserts more sync runs than the history keeps and makes sure the provider
+        trims the table down to the most recent ones.
+     */
+    public void testSyncHistoryRetention() {
+        mContext.getContentResolver().delete(WeatherContract.SyncHistoryEntry.CONTENT_URI, null, null);
+
+        int runs = WeatherProvider.SYNC_HISTORY_MAX_ROWS + 5;
+        for (int i = 0; i < runs; i++) {
+            ContentValues historyValues = new ContentValues();
+            historyValues.put(WeatherContract.SyncHistoryEntry.COLUMN_TIMESTAMP, TestUtilities.TEST_DATE + i);
+            historyValues.put(WeatherContract.SyncHistoryEntry.COLUMN_OUTCOME, 0);
+            historyValues.put(WeatherContract.SyncHistoryEntry.COLUMN_LATENCY, 250);
+            historyValues.put(WeatherContract.SyncHistoryEntry.COLUMN_ROWS, 14);
+            historyValues.put(WeatherContract.SyncHistoryEntry.COLUMN_BYTES, 6000);
+            Uri historyUri = mContext.getContentResolver().insert(
+                    WeatherContract.SyncHistoryEntry.CONTENT_URI, historyValues);
+            assertTrue("Error: Unable to insert sync history row " + i,
+                    ContentUris.parseId(historyUri) != -1);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.SyncHistoryEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.SyncHistoryEntry.COLUMN_TIMESTAMP + " ASC"
+        );
+        assertEquals("Error: Sync history was not trimmed to its retention cap",
+                WeatherProvider.SYNC_HISTORY_MAX_ROWS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The oldest sync runs should have been the ones trimmed",
+                TestUtilities.TEST_DATE + runs - WeatherProvider.SYNC_HISTORY_MAX_ROWS,
+                cursor.getLong(cursor.getColumnIndex(WeatherContract.SyncHistoryEntry.COLUMN_TIMESTAMP)));
+        cursor.close();
+
+        mContext.getContentResolver().delete(WeatherContract.SyncHistoryEntry.CONTENT_URI, null, null);
+    }
+
+    /*
+        This test stores a whole sync through the provider's commit call and makes sure the
+        location, forecast and pruning land in a single transaction with one notification.
+     */
+    public void testCommitForecast() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long millisecondsInADay = 1000*60*60*24;
+
+        // An existing location with a day of weather which the commit should prune
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues staleValues = TestUtilities.createWeatherValues(locationRowId);
+        staleValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE - 2 * millisecondsInADay);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, staleValues);
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.KEY_LOCATION, locationValues);
+        extras.putParcelableArray(WeatherContract.KEY_FORECAST, createBulkInsertWeatherValues(-1));
+        extras.putLong(WeatherContract.KEY_PRUNE_DATE,
+                WeatherContract.normalizeDate(TestUtilities.TEST_DATE - millisecondsInADay));
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        int transactionsBefore = WeatherProvider.getTransactionCount();
+        long startNanos = System.nanoTime();
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_COMMIT_FORECAST, null, extras);
+        long latencyMicros = (System.nanoTime() - startNanos) / 1000;
+        int transactions = WeatherProvider.getTransactionCount() - transactionsBefore;
+        Log.d(LOG_TAG, "Commit of " + BULK_INSERT_RECORDS_TO_INSERT + " rows took " +
+                latencyMicros + "us in " + transactions + " transaction(s)");
+
+        // The notification on the base uri has to reach observers of the weather uris
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals("Error: A commit should take exactly one transaction", 1, transactions);
+        assertEquals("Error: The existing location should have been reused",
+                locationRowId, result.getLong(WeatherContract.KEY_LOCATION_ID));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherContract.KEY_INSERTED));
+        assertEquals("Error: The stale weather row should have been pruned",
+                1, result.getInt(WeatherContract.KEY_DELETED));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        This test makes sure the location id cache never hands out the id of a location row which
+        has been deleted, so a sync after the location table is cleared writes its forecast
+        against a row which actually exists.
+     */
+    public void testLocationCacheCoherence() {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        LocationCache.put(TestUtilities.TEST_LOCATION, locationRowId,
+                locationValues.getAsString(LocationEntry.COLUMN_CITY_NAME),
+                locationValues.getAsDouble(LocationEntry.COLUMN_COORD_LAT),
+                locationValues.getAsDouble(LocationEntry.COLUMN_COORD_LONG));
+
+        // Updating a location through the provider has to drop the cache
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, locationValues,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)});
+        assertNull("Error: Updating a location didn't invalidate the location cache",
+                LocationCache.get(TestUtilities.TEST_LOCATION));
+
+        // And so does clearing the table
+        LocationCache.put(TestUtilities.TEST_LOCATION, locationRowId,
+                locationValues.getAsString(LocationEntry.COLUMN_CITY_NAME),
+                locationValues.getAsDouble(LocationEntry.COLUMN_COORD_LAT),
+                locationValues.getAsDouble(LocationEntry.COLUMN_COORD_LONG));
+        deleteAllRecordsFromProvider();
+        assertNull("Error: Clearing the location table didn't invalidate the location cache",
+                LocationCache.get(TestUtilities.TEST_LOCATION));
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+
+        // A commit after the clear must recreate the location, and cache the new row's id
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.KEY_LOCATION, locationValues);
+        extras.putParcelableArray(WeatherContract.KEY_FORECAST, createBulkInsertWeatherValues(-1));
+        extras.putLong(WeatherContract.KEY_PRUNE_DATE, 0);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_COMMIT_FORECAST, null, extras);
+        long newLocationRowId = result.getLong(WeatherContract.KEY_LOCATION_ID);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID},
+                null,
+                null,
+                null
+        );
+        assertTrue("Error: The commit didn't recreate the location row", cursor.moveToFirst());
+        assertEquals(newLocationRowId, cursor.getLong(0));
+        cursor.close();
+
+        LocationCache.Entry cached = LocationCache.get(TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: The commit didn't cache the location", cached);
+        assertEquals(newLocationRowId, cached.id);
+
+        // The forecast has to be reachable through the location it was stored against
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
 }
@@ -36,6 +36,16 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/sync_history"
+    private static final Uri TEST_SYNC_HISTORY_DIR = WeatherContract.SyncHistoryEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/archive/London, UK/1419033600"
+    private static final Uri TEST_ARCHIVE_WITH_LOCATION_AND_DATE_DIR =
+            WeatherContract.ArchiveEntry.buildArchiveLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    // content://com.example.android.sunshine.app/hourly"
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/hourly/London, UK/1419033600"
+    private static final Uri TEST_HOURLY_WITH_LOCATION_AND_DATE_DIR =
+            WeatherContract.HourlyEntry.buildHourlyLocationWithDate(LOCATION_QUERY, TEST_DATE);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +63,15 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The SYNC HISTORY URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_HISTORY_DIR), WeatherProvider.SYNC_HISTORY);
+        assertEquals("Error: The ARCHIVE WITH LOCATION AND DATE URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_WITH_LOCATION_AND_DATE_DIR),
+                WeatherProvider.ARCHIVE_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), WeatherProvider.HOURLY);
+        assertEquals("Error: The HOURLY WITH LOCATION AND DATE URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_AND_DATE_DIR),
+                WeatherProvider.HOURLY_WITH_LOCATION_AND_DATE);
     }
 }
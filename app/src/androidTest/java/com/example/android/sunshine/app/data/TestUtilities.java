@@ -15,6 +15,7 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.ContentObserver;
@@ -23,12 +24,15 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
 import android.test.AndroidTestCase;
 
 import com.example.android.sunshine.app.utils.PollingCheck;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
 
 /*
     Students: These are functions and some test data to make it easier to test your database and
@@ -36,9 +40,11 @@ import java.util.Set;
     in our solution to use these as-given.
  */
 public class TestUtilities extends AndroidTestCase {
-    static final String TEST_LOCATION = "99705";
+    public static final String TEST_LOCATION = "99705";
     static final long TEST_DATE = 1419033600L;  // December 20th, 2014
 
+    private static final long MILLIS_IN_A_DAY = 1000 * 60 * 60 * 24;
+
     static void validateCursor(String error, Cursor valueCursor, ContentValues expectedValues) {
         assertTrue("Empty cursor returned. " + error, valueCursor.moveToFirst());
         validateCurrentRecord(error, valueCursor, expectedValues);
@@ -163,4 +169,60 @@ public class TestUtilities extends AndroidTestCase {
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
     }
+
+    /*
+        Deletes every weather and location row through the provider.
+     */
+    public static void deleteWeatherAndLocations(Context context) {
+        context.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /*
+        Inserts the North Pole location and rowCount days of the default weather values for it,
+        one a day from startDate, through the provider.  Each day is dated at noon, so the
+        provider normalizes every row to a different day across DST changes.
+     */
+    public static void insertNorthPoleForecast(Context context, long startDate, int rowCount) {
+        Uri locationUri = context.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] weatherValues = new ContentValues[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            weatherValues[i] = createWeatherValues(locationRowId);
+            weatherValues[i].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    startDate + i * MILLIS_IN_A_DAY + MILLIS_IN_A_DAY / 2);
+        }
+        assertEquals(rowCount, context.getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_URI, weatherValues));
+    }
+
+    /*
+        Runs the callable on the main thread and waits for its result.  Assertions which fail
+        inside it are rethrown, wrapped in an ExecutionException.
+     */
+    public static <T> T callOnMainThread(Callable<T> callable) throws Exception {
+        FutureTask<T> task = new FutureTask<T>(callable);
+        new Handler(Looper.getMainLooper()).post(task);
+        return task.get();
+    }
+
+    /*
+        A daily forecast for the North Pole in the OWM format, starting today.  Each day is on
+        a line of its own, so a server can drip feed it a day at a time.
+     */
+    public static String createDailyForecastJson(int days) {
+        StringBuilder json = new StringBuilder()
+                .append("{\"city\":{\"name\":\"North Pole\",\"coord\":{\"lat\":64.7488,\"lon\":-147.353}},\n")
+                .append("\"cod\":\"200\",\n")
+                .append("\"list\":[\n");
+        for (int day = 0; day < days; day++) {
+            json.append("{\"pressure\":1013.5,\"humidity\":80,\"speed\":5.5,\"deg\":180,")
+                    .append("\"temp\":{\"min\":").append(-10 - day).append(",\"max\":").append(day)
+                    .append("},\"weather\":[{\"id\":800,\"main\":\"Clear\"}]}")
+                    .append(day < days - 1 ? ",\n" : "\n");
+        }
+        return json.append("]}\n").toString();
+    }
 }
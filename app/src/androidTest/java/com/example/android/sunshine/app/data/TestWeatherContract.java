@@ -42,4 +42,17 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    public void testBuildWeatherLocationWindow() {
+        Uri windowUri = WeatherContract.WeatherEntry.buildWeatherLocationWindow(
+                TEST_WEATHER_LOCATION, TEST_WEATHER_DATE + 1, 50);
+        assertEquals("Error: Weather location not properly appended to the window Uri",
+                TEST_WEATHER_LOCATION, WeatherContract.WeatherEntry.getLocationSettingFromUri(windowUri));
+        assertEquals("Error: A window should start exactly at the given date",
+                TEST_WEATHER_DATE + 1, WeatherContract.WeatherEntry.getStartDateFromUri(windowUri));
+        assertEquals("50", WeatherContract.WeatherEntry.getLimitFromUri(windowUri));
+        assertNull("Error: A plain location Uri shouldn't have a limit",
+                WeatherContract.WeatherEntry.getLimitFromUri(
+                        WeatherContract.WeatherEntry.buildWeatherLocation(TEST_WEATHER_LOCATION)));
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.ScriptedHttpServer;
+import com.example.android.sunshine.app.utils.ScriptedHttpServer.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+
+/*
+    Runs the forecast HTTP client against a local server which drops connections, stalls and
+    fails on cue.
+ */
+public class TestForecastHttpClient extends AndroidTestCase {
+
+    private static final String BODY = "{\"cod\":\"200\"}";
+
+    private ScriptedHttpServer mServer;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        super.tearDown();
+    }
+
+    private ForecastHttpClient createClient(long deadlineMillis) {
+        return new ForecastHttpClient(1000, 500, deadlineMillis, 3, 50);
+    }
+
+    private URL getUrl() throws IOException {
+        return new URL(mServer.getUrl() + "forecast");
+    }
+
+    public void testKeepAlive() throws Exception {
+        mServer = new ScriptedHttpServer(Response.ok(BODY));
+        ForecastHttpClient client = createClient(5000);
+
+        assertEquals(BODY, client.newCall(getUrl()).execute());
+        assertEquals(BODY, client.newCall(getUrl()).execute());
+        assertEquals(BODY, client.newCall(getUrl()).execute());
+
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals("Error: Calls should reuse the kept alive connection",
+                1, mServer.getConnectionCount());
+    }
+
+    public void testRetryAfterReset() throws Exception {
+        mServer = new ScriptedHttpServer(Response.reset(), Response.ok(BODY));
+        ForecastHttpClient.Call call = createClient(5000).newCall(getUrl());
+
+        assertEquals(BODY, call.execute());
+        // HttpURLConnection may retry a reset GET itself before we get to see the failure
+        assertEquals("Error: A reset connection should be retried", 2, mServer.getRequestCount());
+        assertTrue(call.getAttempts() <= 2);
+    }
+
+    public void testRetryAfterReadTimeout() throws Exception {
+        mServer = new ScriptedHttpServer(Response.delayed(10000, BODY), Response.ok(BODY));
+        ForecastHttpClient.Call call = createClient(5000).newCall(getUrl());
+
+        assertEquals(BODY, call.execute());
+
+        assertEquals("Error: A stalled response should be retried", 2, call.getAttempts());
+        assertEquals("Error: The stalled response should have timed out rather than been waited for",
+                1, mServer.getResponseCount());
+    }
+
+    public void testRetryAfterServerError() throws Exception {
+        mServer = new ScriptedHttpServer(Response.status(503, "busy"), Response.ok(BODY));
+        ForecastHttpClient.Call call = createClient(5000).newCall(getUrl());
+
+        assertEquals(BODY, call.execute());
+        assertEquals(2, call.getAttempts());
+        assertEquals(200, call.getResponseCode());
+    }
+
+    public void testClientErrorNotRetried() throws Exception {
+        String notFound = "{\"cod\":\"404\",\"message\":\"city not found\"}";
+        mServer = new ScriptedHttpServer(Response.status(404, notFound));
+        ForecastHttpClient.Call call = createClient(5000).newCall(getUrl());
+
+        assertEquals("Error: A client error should return its body for the parser",
+                notFound, call.execute());
+        assertEquals(1, call.getAttempts());
+        assertEquals(404, call.getResponseCode());
+    }
+
+    public void testDeadline() throws Exception {
+        mServer = new ScriptedHttpServer(Response.delayed(10000, BODY));
+        ForecastHttpClient.Call call = createClient(1200).newCall(getUrl());
+
+        try {
+            call.execute();
+            fail("Error: A server which never answers should fail the call");
+        } catch (SocketTimeoutException e) {
+            // Expected
+        }
+        assertTrue("Error: The deadline should have stopped the retries, not the attempt limit",
+                call.getAttempts() < 3);
+        assertEquals("Error: The call should have given up before the response was sent",
+                0, mServer.getResponseCount());
+    }
+
+    public void testCancel() throws Exception {
+        mServer = new ScriptedHttpServer(Response.delayed(10000, BODY));
+        final ForecastHttpClient.Call call =
+                new ForecastHttpClient(1000, 10000, 20000, 3, 50).newCall(getUrl());
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                call.cancel();
+            }
+        }).start();
+
+        try {
+            call.execute();
+            fail("Error: A canceled call should not return a body");
+        } catch (InterruptedIOException e) {
+            // Expected
+        }
+        assertEquals("Error: A canceled call should not be retried", 1, call.getAttempts());
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals("Error: A canceled call should stop waiting before the response is sent",
+                0, mServer.getResponseCount());
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.PollingCheck;
+import com.example.android.sunshine.app.utils.ScriptedHttpServer;
+import com.example.android.sunshine.app.utils.ScriptedHttpServer.Response;
+
+import java.util.concurrent.Callable;
+
+/*
+    Prefetches forecasts from a local server the way the location preference does, and checks
+    what gets validated, debounced and committed.
+ */
+public class TestForecastPrefetcher extends AndroidTestCase {
+
+    private static final String NOT_FOUND = "{\"cod\":\"404\",\"message\":\"city not found\"}";
+
+    private ScriptedHttpServer mServer;
+    private volatile int mLastStatus = -1;
+
+    private final ForecastPrefetcher.Listener mListener = new ForecastPrefetcher.Listener() {
+        @Override
+        public void onPrefetched(String location, @SunshineSyncAdapter.LocationStatus int status) {
+            mLastStatus = status;
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteWeatherAndLocations(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.callOnMainThread(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ForecastPrefetcher.cancel();
+                return null;
+            }
+        });
+        SunshineSyncAdapter.resetForecastBaseUrls();
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        TestUtilities.deleteWeatherAndLocations(mContext);
+        super.tearDown();
+    }
+
+    private void startServer(Response... script) throws Exception {
+        mServer = new ScriptedHttpServer(script);
+        SunshineSyncAdapter.setForecastBaseUrl(mServer.getUrl());
+    }
+
+    private void schedule(final String location) throws Exception {
+        TestUtilities.callOnMainThread(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ForecastPrefetcher.schedule(location, mListener);
+                return null;
+            }
+        });
+    }
+
+    public void testValidate() {
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                ForecastPrefetcher.validate(TestUtilities.createDailyForecastJson(7)));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                ForecastPrefetcher.validate(NOT_FOUND));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                ForecastPrefetcher.validate("{\"cod\":\"500\"}"));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                ForecastPrefetcher.validate(""));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                ForecastPrefetcher.validate("{\"cod\":\"200\",\"list\":["));
+    }
+
+    public void testPrefetchThenCommit() throws Exception {
+        startServer(Response.ok(TestUtilities.createDailyForecastJson(7)));
+        final String location = Utility.getPreferredLocation(mContext);
+
+        schedule(location);
+        new PollingCheck(ForecastPrefetcher.DEBOUNCE_MILLIS + 5000) {
+            @Override
+            protected boolean check() {
+                return ForecastPrefetcher.hasForecast(location);
+            }
+        }.run();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, mLastStatus);
+
+        assertTrue("Error: The prefetched forecast should be committed",
+                ForecastPrefetcher.commitPrefetched(mContext, location));
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                Cursor weatherCursor = mContext.getContentResolver().query(
+                        WeatherContract.WeatherEntry.buildWeatherLocation(location),
+                        null, null, null, null);
+                int count = weatherCursor.getCount();
+                weatherCursor.close();
+                return count > 0;
+            }
+        }.run();
+
+        assertEquals("Error: The commit should not download the forecast again",
+                1, mServer.getRequestCount());
+        assertTrue("Error: The commit should leave the forecast for the sync",
+                ForecastPrefetcher.hasForecast(location));
+        assertNotNull(ForecastPrefetcher.take(location));
+        assertFalse("Error: A prefetched forecast should only be handed to the sync once",
+                ForecastPrefetcher.hasForecast(location));
+    }
+
+    public void testTakeWaitsForDetachedPrefetch() throws Exception {
+        startServer(Response.delayed(1000, TestUtilities.createDailyForecastJson(7)));
+        final String location = "detach-" + System.nanoTime();
+
+        // Confirming the dialog right after typing, before the debounce has run out
+        TestUtilities.callOnMainThread(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ForecastPrefetcher.schedule(location, mListener);
+                ForecastPrefetcher.detach();
+                return null;
+            }
+        });
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return mServer.getRequestCount() == 1;
+            }
+        }.run();
+
+        assertNotNull("Error: The sync should wait for the prefetch which is downloading",
+                ForecastPrefetcher.take(location));
+        assertEquals("Error: Only the prefetch should have downloaded the forecast",
+                1, mServer.getRequestCount());
+        assertEquals("Error: A detached prefetch should not call the listener",
+                -1, mLastStatus);
+    }
+
+    public void testDebounce() throws Exception {
+        startServer(Response.ok(TestUtilities.createDailyForecastJson(7)));
+        String typed = "debounce-" + System.nanoTime();
+
+        // Typing a letter at a time, quicker than the debounce
+        for (int i = 1; i <= typed.length(); i++) {
+            schedule(typed.substring(0, i));
+        }
+        final String location = typed;
+        new PollingCheck(ForecastPrefetcher.DEBOUNCE_MILLIS + 5000) {
+            @Override
+            protected boolean check() {
+                return ForecastPrefetcher.hasForecast(location);
+            }
+        }.run();
+
+        assertEquals("Error: Only the location typed last should be prefetched",
+                1, mServer.getRequestCount());
+    }
+
+    public void testInvalidLocation() throws Exception {
+        startServer(Response.status(404, NOT_FOUND));
+        final String location = "nowhere-" + System.nanoTime();
+
+        schedule(location);
+        new PollingCheck(ForecastPrefetcher.DEBOUNCE_MILLIS + 5000) {
+            @Override
+            protected boolean check() {
+                return mLastStatus == SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+            }
+        }.run();
+
+        assertFalse(ForecastPrefetcher.hasForecast(location));
+        assertFalse("Error: An invalid location should leave the commit to a sync",
+                ForecastPrefetcher.commitPrefetched(mContext, location));
+    }
+}
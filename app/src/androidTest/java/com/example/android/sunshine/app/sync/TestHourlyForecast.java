@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.utils.ScriptedHttpServer;
+import com.example.android.sunshine.app.utils.ScriptedHttpServer.Response;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Parses a recorded three hour forecast from OWM, stores it through the provider and syncs it
+    from a local server, checking each day comes back from its single packed row.
+ */
+public class TestHourlyForecast extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+
+    // Every day is packed into the same number of bytes, filled or not
+    private static final int DAY_BYTES = 112;
+
+    // A response from api.openweathermap.org/data/2.5/forecast?q=99705&units=metric, cut down
+    // to the first ten forecasts
+    private static final String RECORDED_HOURLY_JSON = "{\"city\":{\"id\":5861897,"
+            + "\"name\":\"North Pole\",\"coord\":{\"lon\":-147.353,\"lat\":64.7488},"
+            + "\"country\":\"US\",\"population\":0},\"cod\":\"200\",\"message\":0.0061,\"cnt\":10,"
+            + "\"list\":["
+            + forecast(1419033600L, -21.37, -23.04, 1002.81, 74, 600, 1.36, 201.5, "2014-12-20 00:00:00") + ","
+            + forecast(1419044400L, -22.58, -23.83, 1003.42, 73, 800, 1.21, 198.0, "2014-12-20 03:00:00") + ","
+            + forecast(1419055200L, -24.11, -24.94, 1004.15, 71, 800, 0.87, 187.2, "2014-12-20 06:00:00") + ","
+            + forecast(1419066000L, -25.02, -25.44, 1004.6, 70, 801, 0.62, 176.0, "2014-12-20 09:00:00") + ","
+            + forecast(1419076800L, -24.49, -24.49, 1005.02, 72, 802, 0.95, 160.5, "2014-12-20 12:00:00") + ","
+            + forecast(1419087600L, -22.16, -22.16, 1005.27, 76, 803, 1.68, 152.1, "2014-12-20 15:00:00") + ","
+            + forecast(1419098400L, -19.93, -19.93, 1005.11, 80, 804, 2.31, 149.0, "2014-12-20 18:00:00") + ","
+            + forecast(1419109200L, -18.75, -18.75, 1004.52, 84, 600, 2.74, 151.8, "2014-12-20 21:00:00") + ","
+            + forecast(1419120000L, -18.2, -18.2, 1003.66, 86, 601, 3.05, 158.3, "2014-12-21 00:00:00") + ","
+            + forecast(1419130800L, -18.96, -18.96, 1002.9, 85, 600, 2.88, 163.7, "2014-12-21 03:00:00")
+            + "]}";
+
+    private static String forecast(long dt, double temp, double tempMin, double pressure,
+                                   int humidity, int weatherId, double speed, double deg,
+                                   String dtText) {
+        return "{\"dt\":" + dt + ",\"main\":{\"temp\":" + temp + ",\"temp_min\":" + tempMin
+                + ",\"temp_max\":" + temp + ",\"pressure\":" + pressure + ",\"sea_level\":"
+                + (pressure + 21.4) + ",\"grnd_level\":" + pressure + ",\"humidity\":" + humidity
+                + ",\"temp_kf\":0},\"weather\":[{\"id\":" + weatherId + ",\"main\":\"Snow\","
+                + "\"description\":\"light snow\",\"icon\":\"13n\"}],\"clouds\":{\"all\":92},"
+                + "\"wind\":{\"speed\":" + speed + ",\"deg\":" + deg + "},\"snow\":{\"3h\":0.05},"
+                + "\"sys\":{\"pod\":\"n\"},\"dt_txt\":\"" + dtText + "\"}";
+    }
+
+    private ScriptedHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.resetForecastBaseUrls();
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        TestUtilities.deleteWeatherAndLocations(mContext);
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+    }
+
+    public void testParseRecordedResponse() throws Exception {
+        ContentValues[] hourly = HourlyForecastParser.parse(RECORDED_HOURLY_JSON, TEST_LOCATION);
+        assertEquals(10, hourly.length);
+
+        ContentValues first = hourly[0];
+        assertEquals(TEST_LOCATION, first.getAsString(HourlyEntry.COLUMN_LOCATION_SETTING));
+        assertEquals(1419033600000L, (long) first.getAsLong(HourlyEntry.COLUMN_TIME));
+        assertEquals(600, (int) first.getAsInteger(HourlyEntry.COLUMN_WEATHER_ID));
+        assertEquals(-21.37, first.getAsDouble(HourlyEntry.COLUMN_TEMP), 0.001);
+        assertEquals(74, (int) first.getAsInteger(HourlyEntry.COLUMN_HUMIDITY));
+        assertEquals(1002.81, first.getAsDouble(HourlyEntry.COLUMN_PRESSURE), 0.001);
+        assertEquals(1.36, first.getAsDouble(HourlyEntry.COLUMN_WIND_SPEED), 0.001);
+        assertEquals(201.5, first.getAsDouble(HourlyEntry.COLUMN_DEGREES), 0.001);
+
+        assertEquals(0, HourlyForecastParser.parse(
+                "{\"cod\":\"404\",\"message\":\"city not found\"}", TEST_LOCATION).length);
+    }
+
+    public void testStoreAndReadBack() throws Exception {
+        ContentValues[] hourly = HourlyForecastParser.parse(RECORDED_HOURLY_JSON, TEST_LOCATION);
+        assertEquals(hourly.length, mContext.getContentResolver().bulkInsert(
+                HourlyEntry.CONTENT_URI, hourly));
+        assertStored(hourly);
+    }
+
+    /*
+        A later forecast starts from its own time, the slots from earlier in the day must
+        survive it.
+     */
+    public void testLaterForecastKeepsEarlierSlots() throws Exception {
+        ContentValues[] hourly = HourlyForecastParser.parse(RECORDED_HOURLY_JSON, TEST_LOCATION);
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI,
+                Arrays.copyOfRange(hourly, 0, 6));
+
+        ContentValues[] later = Arrays.copyOfRange(hourly, 4, hourly.length);
+        for (ContentValues values : later) {
+            values.put(HourlyEntry.COLUMN_TEMP, values.getAsDouble(HourlyEntry.COLUMN_TEMP) + 1);
+        }
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, later);
+
+        ContentValues[] expected = new ContentValues[hourly.length];
+        System.arraycopy(hourly, 0, expected, 0, 4);
+        System.arraycopy(later, 0, expected, 4, later.length);
+        assertStored(expected);
+    }
+
+    public void testSyncStoresHourly() throws Exception {
+        String location = Utility.getPreferredLocation(mContext);
+        mServer = new ScriptedHttpServer(Response.ok(TestUtilities.createDailyForecastJson(7)),
+                Response.ok(RECORDED_HOURLY_JSON));
+        SunshineSyncAdapter.setForecastBaseUrl(mServer.getUrl());
+        SunshineSyncAdapter.setHourlyForecastBaseUrl(mServer.getUrl());
+
+        new SunshineSyncAdapter(mContext, false).onPerformSync(null, new Bundle(),
+                WeatherContract.CONTENT_AUTHORITY, null, new SyncResult());
+
+        assertEquals("Error: The sync should download the daily and the hourly forecasts",
+                2, mServer.getRequestCount());
+        assertStored(HourlyForecastParser.parse(RECORDED_HOURLY_JSON, location));
+    }
+
+    /*
+        Checks there is one packed row for each day of the forecasts, and that each day reads
+        back as the forecasts which fell on it.
+     */
+    private void assertStored(ContentValues[] hourly) {
+        Map<Long, List<ContentValues>> days = new LinkedHashMap<Long, List<ContentValues>>();
+        for (ContentValues values : hourly) {
+            long date = WeatherContract.normalizeDate(values.getAsLong(HourlyEntry.COLUMN_TIME));
+            if (!days.containsKey(date)) {
+                days.put(date, new ArrayList<ContentValues>());
+            }
+            days.get(date).add(values);
+        }
+        String location = hourly[0].getAsString(HourlyEntry.COLUMN_LOCATION_SETTING);
+
+        Cursor rowCursor = mContext.getContentResolver().query(HourlyEntry.CONTENT_URI,
+                new String[]{HourlyEntry.COLUMN_SLOTS}, null, null, null);
+        assertEquals("Error: There should be one row per day", days.size(), rowCursor.getCount());
+        while (rowCursor.moveToNext()) {
+            assertEquals(DAY_BYTES, rowCursor.getBlob(0).length);
+        }
+        rowCursor.close();
+
+        for (Map.Entry<Long, List<ContentValues>> day : days.entrySet()) {
+            Cursor slotCursor = mContext.getContentResolver().query(
+                    HourlyEntry.buildHourlyLocationWithDate(location, day.getKey()),
+                    null, null, null, null);
+            List<ContentValues> expected = day.getValue();
+            assertEquals(expected.size(), slotCursor.getCount());
+            for (ContentValues values : expected) {
+                assertTrue(slotCursor.moveToNext());
+                assertEquals((long) values.getAsLong(HourlyEntry.COLUMN_TIME),
+                        slotCursor.getLong(slotCursor.getColumnIndex(HourlyEntry.COLUMN_TIME)));
+                assertEquals((int) values.getAsInteger(HourlyEntry.COLUMN_WEATHER_ID),
+                        slotCursor.getInt(slotCursor.getColumnIndex(HourlyEntry.COLUMN_WEATHER_ID)));
+                // Stored to the tenth, as OWM reports them
+                assertEquals(values.getAsDouble(HourlyEntry.COLUMN_TEMP),
+                        slotCursor.getDouble(slotCursor.getColumnIndex(HourlyEntry.COLUMN_TEMP)), 0.051);
+                assertEquals(values.getAsDouble(HourlyEntry.COLUMN_HUMIDITY),
+                        slotCursor.getDouble(slotCursor.getColumnIndex(HourlyEntry.COLUMN_HUMIDITY)), 0.51);
+                assertEquals(values.getAsDouble(HourlyEntry.COLUMN_PRESSURE),
+                        slotCursor.getDouble(slotCursor.getColumnIndex(HourlyEntry.COLUMN_PRESSURE)), 0.051);
+                assertEquals(values.getAsDouble(HourlyEntry.COLUMN_WIND_SPEED),
+                        slotCursor.getDouble(slotCursor.getColumnIndex(HourlyEntry.COLUMN_WIND_SPEED)), 0.051);
+                assertEquals(values.getAsDouble(HourlyEntry.COLUMN_DEGREES),
+                        slotCursor.getDouble(slotCursor.getColumnIndex(HourlyEntry.COLUMN_DEGREES)), 0.51);
+            }
+            slotCursor.close();
+        }
+    }
+}
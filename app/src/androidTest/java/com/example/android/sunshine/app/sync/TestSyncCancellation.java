@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.SlowHttpServer;
+
+/*
+    Cancels a sync halfway through a slow download and checks it backs out without writing
+    anything.
+ */
+public class TestSyncCancellation extends AndroidTestCase {
+
+    private static final int FORECAST_DAYS = 14;
+    private static final long LINE_DELAY_MILLIS = 200;
+
+    private SlowHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteWeatherAndLocations(mContext);
+        mServer = new SlowHttpServer(TestUtilities.createDailyForecastJson(FORECAST_DAYS),
+                LINE_DELAY_MILLIS);
+        SunshineSyncAdapter.setForecastBaseUrl(mServer.getUrl());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.resetForecastBaseUrls();
+        mServer.shutdown();
+        TestUtilities.deleteWeatherAndLocations(mContext);
+        super.tearDown();
+    }
+
+    public void testCancelMidDownload() throws Exception {
+        final SunshineSyncAdapter syncAdapter = new SunshineSyncAdapter(mContext, false);
+        final SyncResult syncResult = new SyncResult();
+        Thread syncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                syncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY,
+                        null, syncResult);
+            }
+        });
+        syncThread.start();
+
+        assertTrue("Error: The sync never started downloading", mServer.awaitFirstLine(5000));
+        syncAdapter.onSyncCanceled();
+        syncThread.join(5000);
+
+        assertFalse("Error: The canceled sync is still running", syncThread.isAlive());
+        assertNotNull("Error: The sync should have noticed it was canceled",
+                syncAdapter.getCanceledCheckpoint());
+        assertTrue("Error: The canceled sync should have stopped reading",
+                mServer.getLinesSent() < mServer.getLineCount());
+        assertEquals("Error: A canceled download should not be retried",
+                1, mServer.getRequestCount());
+        assertEquals("Error: A canceled sync isn't an I/O error", 0, syncResult.stats.numIoExceptions);
+
+        Cursor weatherCursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: A canceled sync should not write any weather", 0, weatherCursor.getCount());
+        weatherCursor.close();
+        Cursor locationCursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: A canceled sync should not write a location", 0, locationCursor.getCount());
+        locationCursor.close();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    A local HTTP/1.1 server which answers requests from a script, for testing how a client
+    copes with slow servers, dropped connections and errors.  Each request takes the next
+    response from the script, once it runs out every request gets the last one again.
+    Connections are kept alive between requests unless the response resets them.
+ */
+public class ScriptedHttpServer {
+
+    public static final class Response {
+        final int mStatus;
+        final String mBody;
+        final long mDelayMillis;
+        final boolean mReset;
+
+        private Response(int status, String body, long delayMillis, boolean reset) {
+            mStatus = status;
+            mBody = body;
+            mDelayMillis = delayMillis;
+            mReset = reset;
+        }
+
+        public static Response ok(String body) {
+            return new Response(200, body, 0, false);
+        }
+
+        public static Response status(int status, String body) {
+            return new Response(status, body, 0, false);
+        }
+
+        /*
+            Waits before sending anything, to trip read timeouts.
+         */
+        public static Response delayed(long delayMillis, String body) {
+            return new Response(200, body, delayMillis, false);
+        }
+
+        /*
+            Resets the connection instead of answering.
+         */
+        public static Response reset() {
+            return new Response(0, null, 0, true);
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final LinkedList<Response> mScript = new LinkedList<Response>();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mResponseCount = new AtomicInteger();
+    private final Thread mAcceptThread;
+
+    public ScriptedHttpServer(Response... script) throws IOException {
+        for (Response response : script) {
+            mScript.add(response);
+        }
+        mServerSocket = new ServerSocket(0, 4, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "ScriptedHttpServer");
+        mAcceptThread.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/";
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /*
+        Responses written out in full, so a delayed response the client gave up on isn't one.
+     */
+    public int getResponseCount() {
+        return mResponseCount.get();
+    }
+
+    public void shutdown() throws IOException, InterruptedException {
+        mServerSocket.close();
+        mAcceptThread.join(1000);
+    }
+
+    private Response nextResponse() {
+        synchronized (mScript) {
+            return mScript.size() > 1 ? mScript.removeFirst() : mScript.getFirst();
+        }
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mConnectionCount.incrementAndGet();
+                Thread connectionThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "ScriptedHttpServer connection");
+                connectionThread.setDaemon(true);
+                connectionThread.start();
+            } catch (IOException e) {
+                // Closed by shutdown
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader request = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                String requestLine = request.readLine();
+                if (requestLine == null) {
+                    return;
+                }
+                String header;
+                while ((header = request.readLine()) != null && header.length() > 0) {
+                    // GETs have no body, the headers are all there is
+                }
+                mRequestCount.incrementAndGet();
+
+                Response response = nextResponse();
+                if (response.mReset) {
+                    // Linger of zero makes close send a RST rather than a FIN
+                    socket.setSoLinger(true, 0);
+                    return;
+                }
+                if (response.mDelayMillis > 0) {
+                    Thread.sleep(response.mDelayMillis);
+                }
+                byte[] body = response.mBody.getBytes("UTF-8");
+                out.write(("HTTP/1.1 " + response.mStatus + " Scripted\r\n" +
+                        "Content-Type: application/json\r\n" +
+                        "Content-Length: " + body.length + "\r\n\r\n").getBytes("UTF-8"));
+                out.write(body);
+                out.flush();
+                mResponseCount.incrementAndGet();
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client went away, nothing more to serve on this connection
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+}
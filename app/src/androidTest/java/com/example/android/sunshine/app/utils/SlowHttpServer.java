@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    A stand in for the forecast server which answers each request on localhost with the same
+    body, written a line at a time with a pause after each line.  Lets tests catch a sync in
+    the middle of a download.
+ */
+public class SlowHttpServer {
+    private final ServerSocket mServerSocket;
+    private final String[] mBodyLines;
+    private final long mLineDelayMillis;
+    private final CountDownLatch mFirstLineSent = new CountDownLatch(1);
+    private final Thread mThread;
+    private volatile int mLinesSent;
+    private volatile int mRequests;
+
+    public SlowHttpServer(String body, long lineDelayMillis) throws IOException {
+        mServerSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        mBodyLines = body.split("\n");
+        mLineDelayMillis = lineDelayMillis;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "SlowHttpServer");
+        mThread.start();
+    }
+
+    /*
+        The base url to request, any path and query after it are ignored.
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/";
+    }
+
+    public boolean awaitFirstLine(long timeoutMillis) throws InterruptedException {
+        return mFirstLineSent.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public int getRequestCount() {
+        return mRequests;
+    }
+
+    public int getLinesSent() {
+        return mLinesSent;
+    }
+
+    public int getLineCount() {
+        return mBodyLines.length;
+    }
+
+    public void shutdown() throws IOException, InterruptedException {
+        mServerSocket.close();
+        mThread.interrupt();
+        mThread.join(1000);
+    }
+
+    private void serve() {
+        while (!mServerSocket.isClosed()) {
+            Socket socket = null;
+            try {
+                socket = mServerSocket.accept();
+                mRequests++;
+                BufferedReader request = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                String line;
+                while ((line = request.readLine()) != null && line.length() > 0) {
+                    // Skip the request line and headers
+                }
+
+                OutputStream response = socket.getOutputStream();
+                response.write(("HTTP/1.1 200 OK\r\n" +
+                        "Content-Type: application/json\r\n" +
+                        "Connection: close\r\n\r\n").getBytes("UTF-8"));
+                for (String bodyLine : mBodyLines) {
+                    response.write((bodyLine + "\n").getBytes("UTF-8"));
+                    response.flush();
+                    mLinesSent++;
+                    mFirstLineSent.countDown();
+                    Thread.sleep(mLineDelayMillis);
+                }
+            } catch (IOException | InterruptedException e) {
+                // The client went away or we're shutting down, either way this response is done
+            } finally {
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // Nothing left to do with it
+                    }
+                }
+            }
+        }
+    }
+}
@@ -16,17 +16,16 @@
 package com.example.android.sunshine.app;
 
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.CardView;
 import android.support.v7.widget.ShareActionProvider;
 import android.support.v7.widget.Toolbar;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -44,7 +43,8 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 /**
  * A placeholder fragment containing a simple view.
  */
-public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<DetailViewModel>,
+        ForecastRepository.Observer {
 
     private static final String LOG_TAG = DetailFragment.class.getSimpleName();
     static final String DETAIL_URI = "URI";
@@ -55,38 +55,13 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     private String mForecast;
     private Uri mUri;
     private boolean mTransitionAnimation;
+    // Set in two-pane mode, where the list has usually loaded the day already
+    private ForecastRepository mRepository;
+    // The day as read from the list, for the next loader to format instead of querying
+    private DetailViewModelLoader.Day mRepositoryDay;
 
     private static final int DETAIL_LOADER = 0;
 
-    private static final String[] DETAIL_COLUMNS = {
-            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
-            WeatherEntry.COLUMN_DATE,
-            WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherEntry.COLUMN_HUMIDITY,
-            WeatherEntry.COLUMN_PRESSURE,
-            WeatherEntry.COLUMN_WIND_SPEED,
-            WeatherEntry.COLUMN_DEGREES,
-            WeatherEntry.COLUMN_WEATHER_ID,
-            // This works because the WeatherProvider returns location data joined with
-            // weather data, even though they're stored in two different tables.
-            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
-    };
-
-    // These indices are tied to DETAIL_COLUMNS.  If DETAIL_COLUMNS changes, these
-    // must change.
-    public static final int COL_WEATHER_ID = 0;
-    public static final int COL_WEATHER_DATE = 1;
-    public static final int COL_WEATHER_DESC = 2;
-    public static final int COL_WEATHER_MAX_TEMP = 3;
-    public static final int COL_WEATHER_MIN_TEMP = 4;
-    public static final int COL_WEATHER_HUMIDITY = 5;
-    public static final int COL_WEATHER_PRESSURE = 6;
-    public static final int COL_WEATHER_WIND_SPEED = 7;
-    public static final int COL_WEATHER_DEGREES = 8;
-    public static final int COL_WEATHER_CONDITION_ID = 9;
-
     private ImageView mIconView;
     private TextView mDateView;
     private TextView mDescriptionView;
@@ -153,10 +128,51 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
-        getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        if (getActivity() instanceof ForecastRepository.Host) {
+            mRepository = ((ForecastRepository.Host) getActivity()).getForecastRepository();
+            mRepository.addObserver(this);
+        }
+        // Only query the day if the list doesn't already have it
+        if (!loadFromRepository()) {
+            getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        }
         super.onActivityCreated(savedInstanceState);
     }
 
+    @Override
+    public void onDestroyView() {
+        if (null != mRepository) {
+            mRepository.removeObserver(this);
+        }
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onForecastChanged() {
+        // Keeps up with syncs, and picks the day up if it wasn't loaded when we started
+        loadFromRepository();
+    }
+
+    /**
+     * Loads the day from the forecast shared with the list, if it's there.  Only the values
+     * are read here, the loader formats them on its own thread.  Returns false if the day has
+     * to be queried instead.
+     */
+    private boolean loadFromRepository() {
+        if (null == mRepository || null == mUri || null == getView()) {
+            return false;
+        }
+        String locationSetting = WeatherEntry.getLocationSettingFromUri(mUri);
+        long date = WeatherEntry.getDateFromUri(mUri);
+        ForecastPager.Window window = mRepository.getWindowForDate(locationSetting, date);
+        if (null == window) {
+            return false;
+        }
+        mRepositoryDay = new DetailViewModelLoader.Day(window, window.getRowForDate(date));
+        getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+        return true;
+    }
+
     void onLocationChanged( String newLocation ) {
         // replace the uri, since the location has changed
         Uri uri = mUri;
@@ -164,23 +180,20 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
             Uri updatedUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(newLocation, date);
             mUri = updatedUri;
-            getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+            // The list reloads for the new location too, and we hear about it when it does
+            if (!loadFromRepository()) {
+                getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+            }
         }
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+    public Loader<DetailViewModel> onCreateLoader(int id, Bundle args) {
         if ( null != mUri ) {
-            // Now create and return a CursorLoader that will take care of
-            // creating a Cursor for the data being displayed.
-            return new CursorLoader(
-                    getActivity(),
-                    mUri,
-                    DETAIL_COLUMNS,
-                    null,
-                    null,
-                    null
-            );
+            // Queries the day and formats it on the loader's thread, so binding it is cheap
+            DetailViewModelLoader.Day day = mRepositoryDay;
+            mRepositoryDay = null;
+            return new DetailViewModelLoader(getActivity(), mUri, day);
         }
         ViewParent vp = getView().getParent();
         if ( vp instanceof CardView ) {
@@ -190,80 +203,73 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        if (data != null && data.moveToFirst()) {
-            ViewParent vp = getView().getParent();
-            if ( vp instanceof CardView ) {
-                ((View)vp).setVisibility(View.VISIBLE);
-            }
+    public void onLoadFinished(Loader<DetailViewModel> loader, DetailViewModel viewModel) {
+        if (viewModel != null) {
+            bind(viewModel);
+        } else {
+            finishBinding();
+        }
+    }
 
-            // Read weather condition ID from cursor
-            int weatherId = data.getInt(COL_WEATHER_CONDITION_ID);
-
-            if ( Utility.usingLocalGraphics(getActivity()) ) {
-                mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
-            } else {
-                // Use weather art image
-                Glide.with(this)
-                        .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
-                        .error(Utility.getArtResourceForWeatherCondition(weatherId))
-                        .crossFade()
-                        .into(mIconView);
-            }
+    private void bind(DetailViewModel viewModel) {
+        long startNanos = System.nanoTime();
+        ViewParent vp = getView().getParent();
+        if ( vp instanceof CardView ) {
+            ((View)vp).setVisibility(View.VISIBLE);
+        }
+
+        if ( null == viewModel.artUrl ) {
+            mIconView.setImageResource(viewModel.artResourceId);
+        } else {
+            // Use weather art image
+            Glide.with(this)
+                    .load(viewModel.artUrl)
+                    .error(viewModel.artResourceId)
+                    .crossFade()
+                    .into(mIconView);
+        }
+
+        // For accessibility, add a content description to the icon field. Because the ImageView
+        // is independently focusable, it's better to have a description of the image. Using
+        // null is appropriate when the image is purely decorative or when the image already
+        // has text describing it in the same UI component.
+        mIconView.setContentDescription(viewModel.iconDescription);
+
+        mDateView.setText(viewModel.dateText);
 
-            // Read date from cursor and update views for day of week and date
-            long date = data.getLong(COL_WEATHER_DATE);
-            String dateText = Utility.getFullFriendlyDayString(getActivity(),date);
-            mDateView.setText(dateText);
-
-            // Get description from weather condition ID
-            String description = Utility.getStringForWeatherCondition(getActivity(), weatherId);
-            mDescriptionView.setText(description);
-            mDescriptionView.setContentDescription(getString(R.string.a11y_forecast, description));
-
-            // For accessibility, add a content description to the icon field. Because the ImageView
-            // is independently focusable, it's better to have a description of the image. Using
-            // null is appropriate when the image is purely decorative or when the image already
-            // has text describing it in the same UI component.
-            mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, description));
-
-            // Read high temperature from cursor and update view
-            boolean isMetric = Utility.isMetric(getActivity());
-
-            double high = data.getDouble(COL_WEATHER_MAX_TEMP);
-            String highString = Utility.formatTemperature(getActivity(), high);
-            mHighTempView.setText(highString);
-            mHighTempView.setContentDescription(getString(R.string.a11y_high_temp, highString));
-
-            // Read low temperature from cursor and update view
-            double low = data.getDouble(COL_WEATHER_MIN_TEMP);
-            String lowString = Utility.formatTemperature(getActivity(), low);
-            mLowTempView.setText(lowString);
-            mLowTempView.setContentDescription(getString(R.string.a11y_low_temp, lowString));
-
-            // Read humidity from cursor and update view
-            float humidity = data.getFloat(COL_WEATHER_HUMIDITY);
-            mHumidityView.setText(getActivity().getString(R.string.format_humidity, humidity));
-            mHumidityView.setContentDescription(getString(R.string.a11y_humidity, mHumidityView.getText()));
-            mHumidityLabelView.setContentDescription(mHumidityView.getContentDescription());
-
-            // Read wind speed and direction from cursor and update view
-            float windSpeedStr = data.getFloat(COL_WEATHER_WIND_SPEED);
-            float windDirStr = data.getFloat(COL_WEATHER_DEGREES);
-            mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeedStr, windDirStr));
-            mWindView.setContentDescription(getString(R.string.a11y_wind, mWindView.getText()));
-            mWindLabelView.setContentDescription(mWindView.getContentDescription());
-
-            // Read pressure from cursor and update view
-            float pressure = data.getFloat(COL_WEATHER_PRESSURE);
-            mPressureView.setText(getString(R.string.format_pressure, pressure));
-            mPressureView.setContentDescription(getString(R.string.a11y_pressure, mPressureView.getText()));
-            mPressureLabelView.setContentDescription(mPressureView.getContentDescription());
-
-            // We still need this for the share intent
-            mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
+        mDescriptionView.setText(viewModel.description);
+        mDescriptionView.setContentDescription(viewModel.descriptionA11y);
 
+        mHighTempView.setText(viewModel.highText);
+        mHighTempView.setContentDescription(viewModel.highA11y);
+
+        mLowTempView.setText(viewModel.lowText);
+        mLowTempView.setContentDescription(viewModel.lowA11y);
+
+        mHumidityView.setText(viewModel.humidityText);
+        mHumidityView.setContentDescription(viewModel.humidityA11y);
+        mHumidityLabelView.setContentDescription(viewModel.humidityA11y);
+
+        mWindView.setText(viewModel.windText);
+        mWindView.setContentDescription(viewModel.windA11y);
+        mWindLabelView.setContentDescription(viewModel.windA11y);
+
+        mPressureView.setText(viewModel.pressureText);
+        mPressureView.setContentDescription(viewModel.pressureA11y);
+        mPressureLabelView.setContentDescription(viewModel.pressureA11y);
+
+        mForecast = viewModel.shareText;
+
+        if (BuildConfig.DEBUG) {
+            // Formatting used to happen here too, this shows what's left on the main thread
+            Log.d(LOG_TAG, "Bound detail in " + (System.nanoTime() - startNanos) / 1000
+                    + "us, formatted in " + viewModel.buildNanos / 1000 + "us");
         }
+
+        finishBinding();
+    }
+
+    private void finishBinding() {
         AppCompatActivity activity = (AppCompatActivity)getActivity();
         Toolbar toolbarView = (Toolbar) getView().findViewById(R.id.toolbar);
 
@@ -288,5 +294,5 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) { }
+    public void onLoaderReset(Loader<DetailViewModel> loader) { }
 }
\ No newline at end of file
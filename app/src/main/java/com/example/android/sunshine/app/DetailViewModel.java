@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+/**
+ * Everything {@link DetailFragment} shows for one day, already formatted: the texts, their
+ * content descriptions and where the art comes from.  Formatting dates, temperatures and wind
+ * reads preferences and resources, so it is done once, off the main thread where possible,
+ * and binding is left with nothing but setText calls.
+ */
+public class DetailViewModel {
+    public final int weatherId;
+    // Local art, also the fallback when the art url can't be loaded
+    public final int artResourceId;
+    // Null when the user has chosen the local art
+    public final String artUrl;
+    public final String iconDescription;
+
+    public final String dateText;
+    public final String description;
+    public final String descriptionA11y;
+    public final String highText;
+    public final String highA11y;
+    public final String lowText;
+    public final String lowA11y;
+    public final String humidityText;
+    public final String humidityA11y;
+    public final String windText;
+    public final String windA11y;
+    public final String pressureText;
+    public final String pressureA11y;
+    public final String shareText;
+
+    // How long building this took, to see what it saves the main thread
+    public final long buildNanos;
+
+    private DetailViewModel(Context context, int weatherId, long date, double high, double low,
+                            float humidity, float windSpeed, float degrees, float pressure) {
+        long startNanos = System.nanoTime();
+        this.weatherId = weatherId;
+        artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        artUrl = Utility.usingLocalGraphics(context) ? null
+                : Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+        dateText = Utility.getFullFriendlyDayString(context, date);
+
+        // Get description from weather condition ID
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionA11y = context.getString(R.string.a11y_forecast, description);
+        iconDescription = context.getString(R.string.a11y_forecast_icon, description);
+
+        highText = Utility.formatTemperature(context, high);
+        highA11y = context.getString(R.string.a11y_high_temp, highText);
+        lowText = Utility.formatTemperature(context, low);
+        lowA11y = context.getString(R.string.a11y_low_temp, lowText);
+
+        humidityText = context.getString(R.string.format_humidity, humidity);
+        humidityA11y = context.getString(R.string.a11y_humidity, humidityText);
+        windText = Utility.getFormattedWind(context, windSpeed, degrees);
+        windA11y = context.getString(R.string.a11y_wind, windText);
+        pressureText = context.getString(R.string.format_pressure, pressure);
+        pressureA11y = context.getString(R.string.a11y_pressure, pressureText);
+
+        // We still need this for the share intent
+        shareText = String.format("%s - %s - %s/%s", dateText, description, high, low);
+        buildNanos = System.nanoTime() - startNanos;
+    }
+
+    public static DetailViewModel build(Context context, int weatherId, long date, double high,
+                                        double low, float humidity, float windSpeed,
+                                        float degrees, float pressure) {
+        return new DetailViewModel(context.getApplicationContext(), weatherId, date, high, low,
+                humidity, windSpeed, degrees, pressure);
+    }
+}
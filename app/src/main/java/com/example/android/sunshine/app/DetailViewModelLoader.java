@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Loads one day of the forecast and formats it into a {@link DetailViewModel}, both on the
+ * loader's background thread.  Like a CursorLoader it loads again whenever the day's data
+ * changes, but it doesn't hold a cursor open in between.  When the day has already been read
+ * into memory, e.g. by the list in two-pane mode, the first load formats that instead of
+ * querying.
+ */
+public class DetailViewModelLoader extends AsyncTaskLoader<DetailViewModel> {
+
+    private static final String[] DETAIL_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            // This works because the WeatherProvider returns location data joined with
+            // weather data, even though they're stored in two different tables.
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    // These indices are tied to DETAIL_COLUMNS.  If DETAIL_COLUMNS changes, these
+    // must change.
+    private static final int COL_WEATHER_DATE = 1;
+    private static final int COL_WEATHER_MAX_TEMP = 3;
+    private static final int COL_WEATHER_MIN_TEMP = 4;
+    private static final int COL_WEATHER_HUMIDITY = 5;
+    private static final int COL_WEATHER_PRESSURE = 6;
+    private static final int COL_WEATHER_WIND_SPEED = 7;
+    private static final int COL_WEATHER_DEGREES = 8;
+    private static final int COL_WEATHER_CONDITION_ID = 9;
+
+    /**
+     * The values of one day, copied out of a forecast window on the main thread so that they
+     * can be formatted on the loader's.
+     */
+    static final class Day {
+        final int weatherId;
+        final long date;
+        final double high;
+        final double low;
+        final float humidity;
+        final float windSpeed;
+        final float degrees;
+        final float pressure;
+
+        Day(ForecastPager.Window window, int row) {
+            weatherId = window.getWeatherId(row);
+            date = window.getDate(row);
+            high = window.getHigh(row);
+            low = window.getLow(row);
+            humidity = window.getHumidity(row);
+            windSpeed = window.getWindSpeed(row);
+            degrees = window.getDegrees(row);
+            pressure = window.getPressure(row);
+        }
+    }
+
+    private final Uri mUri;
+    // Used up by the first load, later loads query the day again
+    private volatile Day mDay;
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private boolean mObserving;
+    private DetailViewModel mViewModel;
+
+    public DetailViewModelLoader(Context context, Uri uri) {
+        this(context, uri, null);
+    }
+
+    DetailViewModelLoader(Context context, Uri uri, Day day) {
+        super(context);
+        mUri = uri;
+        mDay = day;
+    }
+
+    @Override
+    public DetailViewModel loadInBackground() {
+        Day day = mDay;
+        if (null != day) {
+            mDay = null;
+            return DetailViewModel.build(getContext(), day.weatherId, day.date, day.high,
+                    day.low, day.humidity, day.windSpeed, day.degrees, day.pressure);
+        }
+        Cursor cursor = getContext().getContentResolver().query(mUri, DETAIL_COLUMNS, null, null, null);
+        if (null == cursor) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return DetailViewModel.build(getContext(),
+                    cursor.getInt(COL_WEATHER_CONDITION_ID),
+                    cursor.getLong(COL_WEATHER_DATE),
+                    cursor.getDouble(COL_WEATHER_MAX_TEMP),
+                    cursor.getDouble(COL_WEATHER_MIN_TEMP),
+                    cursor.getFloat(COL_WEATHER_HUMIDITY),
+                    cursor.getFloat(COL_WEATHER_WIND_SPEED),
+                    cursor.getFloat(COL_WEATHER_DEGREES),
+                    cursor.getFloat(COL_WEATHER_PRESSURE));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(DetailViewModel viewModel) {
+        if (isReset()) {
+            return;
+        }
+        mViewModel = viewModel;
+        if (isStarted()) {
+            super.deliverResult(viewModel);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            // Changes to the whole forecast are notified on its parent uri, which reaches
+            // observers of every day under it
+            getContext().getContentResolver().registerContentObserver(mUri, false, mObserver);
+            mObserving = true;
+        }
+        if (null != mViewModel) {
+            deliverResult(mViewModel);
+        }
+        if (takeContentChanged() || null == mViewModel) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        mViewModel = null;
+    }
+}
@@ -30,13 +30,15 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * The cursor only holds the first window of the forecast, the rest is paged in by a
+ * {@link ForecastPager} as the list scrolls.
  */
-public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
+public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder>
+        implements ItemChoiceState.ItemIds {
 
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
@@ -45,6 +47,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    final private ForecastRepository mRepository;
+    final private ForecastPager mPager;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -73,9 +77,13 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            ForecastPager.Window window = mPager.getWindow(adapterPosition);
+            if (null == window) {
+                // Still being paged back in, there's nothing on screen to select yet
+                return;
+            }
+            long date = window.getDate(ForecastPager.getRowInWindow(adapterPosition));
+            mClickHandler.onClick(date, this);
             mICM.onClick(this);
         }
     }
@@ -84,12 +92,35 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         void onClick(Long date, ForecastAdapterViewHolder vh);
     }
 
-    public ForecastAdapter(Context context, ForecastAdapterOnClickHandler dh, View emptyView, int choiceMode) {
+    private final ForecastPager.Listener mPagerListener = new ForecastPager.Listener() {
+        @Override
+        public void onRowsInserted(int positionStart, int itemCount) {
+            notifyItemRangeInserted(positionStart, itemCount);
+        }
+
+        @Override
+        public void onRowsChanged(int positionStart, int itemCount) {
+            notifyItemRangeChanged(positionStart, itemCount);
+        }
+    };
+
+    public ForecastAdapter(Context context, ForecastRepository repository,
+                           ForecastAdapterOnClickHandler dh, View emptyView, int choiceMode) {
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
+        mRepository = repository;
+        mPager = repository.getPager();
+        mRepository.addPagerListener(mPagerListener);
+    }
+
+    /**
+     * Stops listening to the repository, which may outlive this adapter.
+     */
+    public void release() {
+        mRepository.removePagerListener(mPagerListener);
     }
 
     /*
@@ -124,8 +155,18 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        ForecastPager.Window window = mPager.getWindow(position);
+        if (null == window) {
+            // Evicted and being paged back in, leave the row blank until it arrives
+            forecastAdapterViewHolder.mIconView.setImageDrawable(null);
+            forecastAdapterViewHolder.mDateView.setText(null);
+            forecastAdapterViewHolder.mDescriptionView.setText(null);
+            forecastAdapterViewHolder.mHighTempView.setText(null);
+            forecastAdapterViewHolder.mLowTempView.setText(null);
+            return;
+        }
+        int row = ForecastPager.getRowInWindow(position);
+        int weatherId = window.getWeatherId(row);
         int defaultImage;
         boolean useLongToday;
 
@@ -153,8 +194,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // the animator can use this to re-find the original view
         ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        // Read date from the window
+        long dateInMillis = window.getDate(row);
 
         // Find TextView and set formatted date on it
         forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
@@ -170,14 +211,14 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+        // Read high temperature from the window
+        double high = window.getHigh(row);
         String highString = Utility.formatTemperature(mContext, high);
         forecastAdapterViewHolder.mHighTempView.setText(highString);
         forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+        // Read low temperature from the window
+        double low = window.getLow(row);
         String lowString = Utility.formatTemperature(mContext, low);
         forecastAdapterViewHolder.mLowTempView.setText(lowString);
         forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
@@ -208,12 +249,12 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mPager.getCount();
     }
 
     public void swapCursor(Cursor newCursor) {
         mCursor = newCursor;
+        mRepository.reset(newCursor);
         notifyDataSetChanged();
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
@@ -222,6 +263,41 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         return mCursor;
     }
 
+    /**
+     * Returns the position of the forecast for this date, if it has been paged in, or
+     * RecyclerView.NO_POSITION.
+     */
+    public int getPositionForDate(long date) {
+        return mPager.getPositionForDate(date);
+    }
+
+    /**
+     * Each day's date is unique within the forecast, so it serves as the item id.  Returns
+     * RecyclerView.NO_ID for a row which is still being paged in.
+     */
+    @Override
+    public long getItemId(int position) {
+        if (position < 0 || position >= mPager.getCount()) {
+            return RecyclerView.NO_ID;
+        }
+        ForecastPager.Window window = mPager.getWindow(position);
+        return null == window ? RecyclerView.NO_ID
+                : window.getDate(ForecastPager.getRowInWindow(position));
+    }
+
+    /**
+     * A date in a window which is evicted or still to be paged in can't be looked up, so it's
+     * reported as unknown rather than gone.
+     */
+    @Override
+    public int getPositionForItemId(long id) {
+        int position = mPager.getPositionForDate(id);
+        if (position == RecyclerView.NO_POSITION && !mPager.isWindowForDateHeld(id)) {
+            return ItemChoiceState.UNKNOWN_POSITION;
+        }
+        return position;
+    }
+
     public void selectView(RecyclerView.ViewHolder viewHolder) {
         if ( viewHolder instanceof ForecastAdapterViewHolder ) {
             ForecastAdapterViewHolder vfh = (ForecastAdapterViewHolder)viewHolder;
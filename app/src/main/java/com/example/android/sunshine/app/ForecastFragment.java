@@ -21,6 +21,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -45,7 +46,9 @@ import android.view.ViewTreeObserver;
 import android.widget.AbsListView;
 import android.widget.TextView;
 
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastPrefetcher;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
@@ -59,13 +62,15 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    // Waiting to draw the snapshot, until the loader returns first
+    private ViewTreeObserver.OnPreDrawListener mSnapshotDrawListener;
 
     private static final String SELECTED_KEY = "selected_position";
 
     private static final int FORECAST_LOADER = 0;
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
-    private static final String[] FORECAST_COLUMNS = {
+    static final String[] FORECAST_COLUMNS = {
             // In this case the id needs to be fully qualified with a table name, since
             // the content provider joins the location & weather tables in the background
             // (both have an _id column)
@@ -80,7 +85,12 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.LocationEntry.COLUMN_COORD_LAT,
-            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            // Not shown in the list, but the detail pane reads them from the same rows
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
     };
 
     // These indices are tied to FORECAST_COLUMNS.  If FORECAST_COLUMNS changes, these
@@ -94,6 +104,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     static final int COL_WEATHER_CONDITION_ID = 6;
     static final int COL_COORD_LAT = 7;
     static final int COL_COORD_LONG = 8;
+    static final int COL_WEATHER_HUMIDITY = 9;
+    static final int COL_WEATHER_PRESSURE = 10;
+    static final int COL_WEATHER_WIND_SPEED = 11;
+    static final int COL_WEATHER_DEGREES = 12;
 
     /**
      * A callback interface that all activities containing this fragment must
@@ -185,7 +199,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
         // The ForecastAdapter will take data from a source and
         // use it to populate the RecyclerView it's attached to.
-        mForecastAdapter = new ForecastAdapter(getActivity(), new ForecastAdapter.ForecastAdapterOnClickHandler() {
+        // In MainActivity the forecast is shared with the detail pane
+        mForecastAdapter = new ForecastAdapter(getActivity(), ForecastRepository.from(getActivity()),
+                new ForecastAdapter.ForecastAdapterOnClickHandler() {
             @Override
             public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
                 String locationSetting = Utility.getPreferredLocation(getActivity());
@@ -259,10 +275,71 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
+        // On a cold start, draw the last synced forecast while the loader opens the database
+        if (null == getLoaderManager().getLoader(FORECAST_LOADER)) {
+            showSnapshot();
+        }
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
         super.onActivityCreated(savedInstanceState);
     }
 
+    /**
+     * Fills the list from the snapshot written by the last sync, if there's one for the
+     * current location.  The loader replaces it as soon as it returns.
+     */
+    private void showSnapshot() {
+        ForecastSnapshot snapshot = ForecastSnapshot.read(getActivity(),
+                Utility.getPreferredLocation(getActivity()),
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+        if (null == snapshot) {
+            return;
+        }
+        mForecastAdapter.swapCursor(newSnapshotCursor(snapshot));
+        mSnapshotDrawListener = new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (mRecyclerView.getChildCount() > 0) {
+                    mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    mSnapshotDrawListener = null;
+                    StartupTrace.onContentDrawn(true);
+                    // Selecting a day waits for the real rows, but there's no reason to hold
+                    // the transition back any longer
+                    if ( mHoldForTransition ) {
+                        getActivity().supportStartPostponedEnterTransition();
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+        mRecyclerView.getViewTreeObserver().addOnPreDrawListener(mSnapshotDrawListener);
+    }
+
+    /**
+     * Lays a snapshot out the way the loader returns the forecast, so the adapter and the pager
+     * treat both alike.
+     */
+    private static Cursor newSnapshotCursor(ForecastSnapshot snapshot) {
+        MatrixCursor cursor = new MatrixCursor(FORECAST_COLUMNS, snapshot.size());
+        for (int row = 0; row < snapshot.size(); row++) {
+            Object[] values = new Object[FORECAST_COLUMNS.length];
+            values[COL_WEATHER_ID] = row;
+            values[COL_WEATHER_DATE] = snapshot.getDate(row);
+            values[COL_WEATHER_MAX_TEMP] = snapshot.getHigh(row);
+            values[COL_WEATHER_MIN_TEMP] = snapshot.getLow(row);
+            values[COL_LOCATION_SETTING] = snapshot.getLocationSetting();
+            values[COL_WEATHER_CONDITION_ID] = snapshot.getWeatherId(row);
+            values[COL_COORD_LAT] = snapshot.getCoordLat();
+            values[COL_COORD_LONG] = snapshot.getCoordLong();
+            values[COL_WEATHER_HUMIDITY] = snapshot.getHumidity(row);
+            values[COL_WEATHER_PRESSURE] = snapshot.getPressure(row);
+            values[COL_WEATHER_WIND_SPEED] = snapshot.getWindSpeed(row);
+            values[COL_WEATHER_DEGREES] = snapshot.getDegrees(row);
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
     // since we read the location when we create the loader, all we need to do is restart things
     void onLocationChanged() {
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
@@ -312,9 +389,12 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // Sort order:  Ascending, by date.
         String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
+        // Only the first window of the forecast is loaded here, the adapter pages in the rest
+        // as the list scrolls so a long range of dates never sits in one cursor.
         String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWindow(
+                locationSetting, WeatherContract.normalizeDate(System.currentTimeMillis()),
+                ForecastPager.WINDOW_SIZE);
 
         return new CursorLoader(getActivity(),
                 weatherForLocationUri,
@@ -326,11 +406,17 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (null != mSnapshotDrawListener) {
+            // The snapshot never made it to the screen
+            mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(mSnapshotDrawListener);
+            mSnapshotDrawListener = null;
+        }
         mForecastAdapter.swapCursor(data);
         updateEmptyView();
         if ( data.getCount() == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
         } else {
+            ForecastPrefetcher.onForecastShown(Utility.getPreferredLocation(getActivity()));
             mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
                 @Override
                 public boolean onPreDraw() {
@@ -338,19 +424,11 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                     // we see Children.
                     if (mRecyclerView.getChildCount() > 0) {
                         mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        StartupTrace.onContentDrawn(false);
                         int position = mForecastAdapter.getSelectedItemPosition();
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
-                                    position = i;
-                                    break;
-                                }
-                            }
+                            position = mForecastAdapter.getPositionForDate(mInitialSelectedDate);
                         }
                         if (position == RecyclerView.NO_POSITION) position = 0;
                         // If we don't need to restart the loader, and there's a desired position to restore
@@ -380,6 +458,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if (null != mRecyclerView) {
             mRecyclerView.clearOnScrollListeners();
         }
+        if (null != mForecastAdapter) {
+            mForecastAdapter.release();
+        }
     }
 
     @Override
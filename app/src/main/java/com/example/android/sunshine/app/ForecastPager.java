@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseBooleanArray;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Reads the forecast for a location a window of days at a time, so a long range of dates never
+ * has to fit in a single cursor.
+ *
+ * The first window comes from the {@link ForecastFragment} loader.  Later windows are queried
+ * on a background thread as the list scrolls towards them, starting once the rows being bound
+ * are halfway through the window before.  Each window is copied out of its cursor and kept in
+ * an LruCache capped at {@link #MAX_CACHED_ROWS} rows, so scrolling a long way evicts the top
+ * of the list.  An evicted window is queried again, by its start date, when it comes back into
+ * view.
+ *
+ * Must only be used from the main thread, which is also where windows are delivered.
+ */
+public class ForecastPager {
+
+    public interface Listener {
+        /**
+         * Called when the window after the last known row has been loaded.
+         */
+        void onRowsInserted(int positionStart, int itemCount);
+
+        /**
+         * Called when a window which had been evicted has been loaded again.
+         */
+        void onRowsChanged(int positionStart, int itemCount);
+    }
+
+    static final int WINDOW_SIZE = 50;
+    static final int MAX_CACHED_ROWS = 8 * WINDOW_SIZE;
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // Windows are queried one at a time, there is never more than one needed at once, and the
+    // thread goes away when the list is left alone.
+    private static final ExecutorService sWindowExecutor = Utility.newSerialExecutor();
+
+    /**
+     * The columns of one window of forecast rows that the list shows.
+     */
+    public static final class Window {
+        private final long[] mDates;
+        private final int[] mWeatherIds;
+        private final double[] mHighs;
+        private final double[] mLows;
+        // Only shown in the detail pane, but cheaper to carry than to query again per selection
+        private final float[] mHumidities;
+        private final float[] mPressures;
+        private final float[] mWindSpeeds;
+        private final float[] mDegrees;
+
+        Window(Cursor cursor) {
+            int count = cursor.getCount();
+            mDates = new long[count];
+            mWeatherIds = new int[count];
+            mHighs = new double[count];
+            mLows = new double[count];
+            mHumidities = new float[count];
+            mPressures = new float[count];
+            mWindSpeeds = new float[count];
+            mDegrees = new float[count];
+            for (int row = 0; row < count; row++) {
+                cursor.moveToPosition(row);
+                mDates[row] = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+                mWeatherIds[row] = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+                mHighs[row] = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+                mLows[row] = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+                mHumidities[row] = cursor.getFloat(ForecastFragment.COL_WEATHER_HUMIDITY);
+                mPressures[row] = cursor.getFloat(ForecastFragment.COL_WEATHER_PRESSURE);
+                mWindSpeeds[row] = cursor.getFloat(ForecastFragment.COL_WEATHER_WIND_SPEED);
+                mDegrees[row] = cursor.getFloat(ForecastFragment.COL_WEATHER_DEGREES);
+            }
+        }
+
+        public int size() {
+            return mDates.length;
+        }
+
+        public long getDate(int row) {
+            return mDates[row];
+        }
+
+        public int getWeatherId(int row) {
+            return mWeatherIds[row];
+        }
+
+        public double getHigh(int row) {
+            return mHighs[row];
+        }
+
+        public double getLow(int row) {
+            return mLows[row];
+        }
+
+        public float getHumidity(int row) {
+            return mHumidities[row];
+        }
+
+        public float getPressure(int row) {
+            return mPressures[row];
+        }
+
+        public float getWindSpeed(int row) {
+            return mWindSpeeds[row];
+        }
+
+        public float getDegrees(int row) {
+            return mDegrees[row];
+        }
+
+        /**
+         * Returns the row for this date, or -1 if there isn't one.
+         */
+        public int getRowForDate(long date) {
+            if (mDates.length == 0) {
+                return -1;
+            }
+            // There's a row per day, so the row is normally the number of days since the first
+            // one.  Rounding copes with the days which are an hour short or long around DST.
+            long days = Math.round((double) (date - mDates[0]) / DAY_IN_MILLIS);
+            if (days >= 0 && days < mDates.length && mDates[(int) days] == date) {
+                return (int) days;
+            }
+            // A day is missing from the forecast, so search for it instead
+            int row = Arrays.binarySearch(mDates, date);
+            return row < 0 ? -1 : row;
+        }
+    }
+
+    private final Context mContext;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final LruCache<Integer, Window> mWindows = new LruCache<Integer, Window>(MAX_CACHED_ROWS) {
+        @Override
+        protected int sizeOf(Integer index, Window window) {
+            // An empty window still takes a slot
+            return Math.max(1, window.size());
+        }
+    };
+
+    // The date each known window starts at, window i holds the rows from position
+    // i * WINDOW_SIZE.  Once the end hasn't been reached the last one is the window still to come.
+    private final ArrayList<Long> mWindowStarts = new ArrayList<Long>();
+    private final SparseBooleanArray mLoading = new SparseBooleanArray();
+
+    private String mLocationSetting;
+    private int mCount;
+    private boolean mEndReached = true;
+
+    // Bumped on every reset, so windows queried for older data are dropped when they arrive
+    private int mGeneration;
+
+    public ForecastPager(Context context, Listener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+    }
+
+    /**
+     * Starts over from the first window of a forecast, as returned by the loader for
+     * {@link WeatherContract.WeatherEntry#buildWeatherLocationWindow}.  The cursor is copied
+     * and can be closed afterwards, a null cursor empties the pager.
+     */
+    public void reset(Cursor firstWindow) {
+        mGeneration++;
+        mWindows.evictAll();
+        mWindowStarts.clear();
+        mLoading.clear();
+        mCount = 0;
+        mEndReached = true;
+        mLocationSetting = null;
+
+        if (null == firstWindow || !firstWindow.moveToFirst()) {
+            return;
+        }
+        mLocationSetting = firstWindow.getString(ForecastFragment.COL_LOCATION_SETTING);
+        Window window = new Window(firstWindow);
+        mWindowStarts.add(window.getDate(0));
+        addWindow(0, window);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public boolean isEndReached() {
+        return mEndReached;
+    }
+
+    public int getCachedRowCount() {
+        return mWindows.size();
+    }
+
+    public static int getRowInWindow(int position) {
+        return position % WINDOW_SIZE;
+    }
+
+    /**
+     * Returns the window holding the row at this position, or null if it has been evicted and
+     * is being queried again.  Also queries the next window once the position is far enough
+     * through this one.
+     */
+    public Window getWindow(int position) {
+        int index = position / WINDOW_SIZE;
+        Window window = mWindows.get(index);
+        if (null == window) {
+            loadWindow(index);
+        }
+        if (getRowInWindow(position) >= WINDOW_SIZE / 2) {
+            loadWindow(index + 1);
+        }
+        return window;
+    }
+
+    /**
+     * Returns the position of the row for this date in the windows currently held, or
+     * RecyclerView.NO_POSITION if it isn't in any of them.  The window is found by a binary
+     * search of the window start dates and the row within it by counting days, so restoring a
+     * selection doesn't get slower as the forecast gets longer.
+     */
+    public int getPositionForDate(long date) {
+        int index = getWindowIndexForDate(date);
+        Window window = index < 0 ? null : mWindows.get(index);
+        if (null == window) {
+            return RecyclerView.NO_POSITION;
+        }
+        int row = window.getRowForDate(date);
+        return row < 0 ? RecyclerView.NO_POSITION : index * WINDOW_SIZE + row;
+    }
+
+    /**
+     * Returns true if {@link #getPositionForDate} has the final say on this date, because the
+     * window it would be in is held or it is before the start of the forecast.  Otherwise that
+     * window has been evicted or not queried yet, and the date may still be in it.
+     */
+    public boolean isWindowForDateHeld(long date) {
+        int index = getWindowIndexForDate(date);
+        return index < 0 || null != mWindows.get(index);
+    }
+
+    /**
+     * Returns the window holding the row for this date, or null if no window held has it.
+     * Unlike {@link #getWindow} this never queries anything.
+     */
+    public Window getWindowForDate(long date) {
+        int index = getWindowIndexForDate(date);
+        Window window = index < 0 ? null : mWindows.get(index);
+        return null == window || window.getRowForDate(date) < 0 ? null : window;
+    }
+
+    /**
+     * Returns the location of the forecast being paged, or null if there isn't one.
+     */
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    private int getWindowIndexForDate(long date) {
+        int index = Collections.binarySearch(mWindowStarts, date);
+        if (index < 0) {
+            // Not a window start, so it falls in the window before the insertion point
+            index = -index - 2;
+        }
+        return index;
+    }
+
+    private void loadWindow(final int index) {
+        if (index >= mWindowStarts.size() || mLoading.get(index) || null != mWindows.get(index)) {
+            return;
+        }
+        mLoading.put(index, true);
+
+        final int generation = mGeneration;
+        final Uri windowUri = WeatherContract.WeatherEntry.buildWeatherLocationWindow(
+                mLocationSetting, mWindowStarts.get(index), WINDOW_SIZE);
+        sWindowExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = mContext.getContentResolver().query(windowUri,
+                        ForecastFragment.FORECAST_COLUMNS,
+                        null,
+                        null,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+                final Window window;
+                if (null == cursor) {
+                    window = null;
+                } else {
+                    try {
+                        window = new Window(cursor);
+                    } finally {
+                        cursor.close();
+                    }
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onWindowLoaded(generation, index, window);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onWindowLoaded(int generation, int index, Window window) {
+        if (generation != mGeneration) {
+            return;
+        }
+        mLoading.delete(index);
+        if (null == window) {
+            return;
+        }
+        int positionStart = index * WINDOW_SIZE;
+        if (positionStart == mCount) {
+            addWindow(index, window);
+            if (window.size() > 0) {
+                mListener.onRowsInserted(positionStart, window.size());
+            }
+        } else {
+            mWindows.put(index, window);
+            mListener.onRowsChanged(positionStart, window.size());
+        }
+    }
+
+    private void addWindow(int index, Window window) {
+        mWindows.put(index, window);
+        mCount += window.size();
+        mEndReached = window.size() < WINDOW_SIZE;
+        if (!mEndReached) {
+            // Dates are unique for a location, so the next window starts just after this one
+            mWindowStarts.add(window.getDate(window.size() - 1) + 1);
+        }
+    }
+}
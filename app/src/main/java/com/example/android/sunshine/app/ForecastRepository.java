@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+
+/**
+ * The forecast {@link MainActivity} is showing, shared between the list and, in two-pane mode,
+ * the detail pane.  The list's loader fills it and its windows hold the detail columns as
+ * well, so picking another day in the list shows its details without querying the provider.
+ *
+ * Observers are told whenever the forecast is reloaded or more of it is paged in, so the
+ * detail pane keeps up with syncs the same way the list does.  Must only be used from the main
+ * thread.
+ */
+public class ForecastRepository implements ForecastPager.Listener {
+
+    /**
+     * Implemented by activities which share a repository between their fragments.
+     */
+    public interface Host {
+        ForecastRepository getForecastRepository();
+    }
+
+    public interface Observer {
+        /**
+         * Called when rows have been loaded or reloaded, any day may have changed.
+         */
+        void onForecastChanged();
+    }
+
+    private final ForecastPager mPager;
+    private final ArrayList<ForecastPager.Listener> mPagerListeners = new ArrayList<ForecastPager.Listener>();
+    private final ArrayList<Observer> mObservers = new ArrayList<Observer>();
+
+    public ForecastRepository(Context context) {
+        mPager = new ForecastPager(context, this);
+    }
+
+    /**
+     * Returns the repository shared by the host activity, or a new one just for the caller if
+     * the activity doesn't share one.
+     */
+    public static ForecastRepository from(Context context) {
+        if (context instanceof Host) {
+            return ((Host) context).getForecastRepository();
+        }
+        return new ForecastRepository(context);
+    }
+
+    public ForecastPager getPager() {
+        return mPager;
+    }
+
+    /**
+     * Starts over from the first window of a forecast, see {@link ForecastPager#reset}.
+     */
+    public void reset(Cursor firstWindow) {
+        mPager.reset(firstWindow);
+        notifyObservers();
+    }
+
+    /**
+     * Returns the window holding the forecast for this date at this location, or null if it
+     * isn't held.  Never queries the provider.
+     */
+    public ForecastPager.Window getWindowForDate(String locationSetting, long date) {
+        if (!locationSetting.equals(mPager.getLocationSetting())) {
+            return null;
+        }
+        return mPager.getWindowForDate(date);
+    }
+
+    public void addPagerListener(ForecastPager.Listener listener) {
+        mPagerListeners.add(listener);
+    }
+
+    public void removePagerListener(ForecastPager.Listener listener) {
+        mPagerListeners.remove(listener);
+    }
+
+    public void addObserver(Observer observer) {
+        mObservers.add(observer);
+    }
+
+    public void removeObserver(Observer observer) {
+        mObservers.remove(observer);
+    }
+
+    @Override
+    public void onRowsInserted(int positionStart, int itemCount) {
+        for (int i = 0; i < mPagerListeners.size(); i++) {
+            mPagerListeners.get(i).onRowsInserted(positionStart, itemCount);
+        }
+        notifyObservers();
+    }
+
+    @Override
+    public void onRowsChanged(int positionStart, int itemCount) {
+        for (int i = 0; i < mPagerListeners.size(); i++) {
+            mPagerListeners.get(i).onRowsChanged(positionStart, itemCount);
+        }
+        notifyObservers();
+    }
+
+    private void notifyObservers() {
+        for (int i = 0; i < mObservers.size(); i++) {
+            mObservers.get(i).onForecastChanged();
+        }
+    }
+}
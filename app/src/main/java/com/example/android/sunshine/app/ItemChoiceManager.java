@@ -15,11 +15,9 @@
  */
 package com.example.android.sunshine.app;
 
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
-import android.support.v4.util.LongSparseArray;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
@@ -28,57 +26,56 @@ import android.widget.AbsListView;
 import android.widget.Checkable;
 
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  Adapters
+ * which implement {@link ItemChoiceState.ItemIds} have their checked items followed by id
+ * across data set changes, for any other adapter an item is just its position.
  */
 public class ItemChoiceManager {
     private final String LOG_TAG = MainActivity.class.getSimpleName();
     private final String SELECTED_ITEMS_KEY = "SIK";
-    private int mChoiceMode;
 
     private RecyclerView.Adapter mAdapter;
     private RecyclerView.AdapterDataObserver mAdapterDataObserver = new RecyclerView.AdapterDataObserver() {
         @Override
         public void onChanged() {
             super.onChanged();
-            if (mAdapter != null && mAdapter.hasStableIds())
-                confirmCheckedPositionsById(mAdapter.getItemCount());
+            mState.confirmCheckedPositions();
         }
-    };
-
-    private ItemChoiceManager() {
-    }
-
-    ;
 
-    public ItemChoiceManager(RecyclerView.Adapter adapter) {
-        mAdapter = adapter;
-    }
+        // Rows paged in may hold checked items which couldn't be found before
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            super.onItemRangeChanged(positionStart, itemCount);
+            mState.confirmCheckedPositions();
+        }
 
-    /**
-     * How many positions in either direction we will search to try to
-     * find a checked item with a stable ID that moved position across
-     * a data set change. If the item isn't found it will be unselected.
-     */
-    private static final int CHECK_POSITION_SEARCH_DISTANCE = 20;
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            super.onItemRangeInserted(positionStart, itemCount);
+            mState.confirmCheckedPositions();
+        }
+    };
 
     /**
-     * Running state of which positions are currently checked
+     * Running state of which items are currently checked
      */
-    SparseBooleanArray mCheckStates = new SparseBooleanArray();
+    private final ItemChoiceState mState;
 
-    /**
-     * Running state of which IDs are currently checked.
-     * If there is a value for a given key, the checked state for that ID is true
-     * and the value holds the last known position in the adapter for that id.
-     */
-    LongSparseArray<Integer> mCheckedIdStates = new LongSparseArray<Integer>();
+    public ItemChoiceManager(RecyclerView.Adapter adapter) {
+        mAdapter = adapter;
+        mState = new ItemChoiceState(adapter instanceof ItemChoiceState.ItemIds
+                ? (ItemChoiceState.ItemIds) adapter : ItemChoiceState.POSITION_IDS);
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
+    }
 
     public void onClick(RecyclerView.ViewHolder vh) {
-        if (mChoiceMode == AbsListView.CHOICE_MODE_NONE)
+        int choiceMode = mState.getChoiceMode();
+        if (choiceMode == AbsListView.CHOICE_MODE_NONE)
             return;
+        if (choiceMode == AbsListView.CHOICE_MODE_MULTIPLE_MODAL) {
+            throw new RuntimeException("Multiple Modal not implemented in ItemChoiceManager.");
+        }
 
-        int checkedItemCount = mCheckStates.size();
         int position = vh.getAdapterPosition();
 
         if (position == RecyclerView.NO_POSITION) {
@@ -86,39 +83,13 @@ public class ItemChoiceManager {
             return;
         }
 
-        switch (mChoiceMode) {
-            case AbsListView.CHOICE_MODE_NONE:
-                break;
-            case AbsListView.CHOICE_MODE_SINGLE: {
-                boolean checked = mCheckStates.get(position, false);
-                if (!checked) {
-                    for (int i = 0; i < checkedItemCount; i++) {
-                        mAdapter.notifyItemChanged(mCheckStates.keyAt(i));
-                    }
-                    mCheckStates.clear();
-                    mCheckStates.put(position, true);
-                    mCheckedIdStates.clear();
-                    mCheckedIdStates.put(mAdapter.getItemId(position), position);
-                }
-                // We directly call onBindViewHolder here because notifying that an item has
-                // changed on an item that has the focus causes it to lose focus, which makes
-                // keyboard navigation a bit annoying
-                mAdapter.onBindViewHolder(vh, position);
-                break;
-            }
-            case AbsListView.CHOICE_MODE_MULTIPLE: {
-                boolean checked = mCheckStates.get(position, false);
-                mCheckStates.put(position, !checked);
-                // We directly call onBindViewHolder here because notifying that an item has
-                // changed on an item that has the focus causes it to lose focus, which makes
-                // keyboard navigation a bit annoying
-                mAdapter.onBindViewHolder(vh, position);
-                break;
-            }
-            case AbsListView.CHOICE_MODE_MULTIPLE_MODAL: {
-                throw new RuntimeException("Multiple Modal not implemented in ItemChoiceManager.");
-            }
+        for (int unchecked : mState.onClick(position)) {
+            mAdapter.notifyItemChanged(unchecked);
         }
+        // We directly call onBindViewHolder here because notifying that an item has
+        // changed on an item that has the focus causes it to lose focus, which makes
+        // keyboard navigation a bit annoying
+        mAdapter.onBindViewHolder(vh, position);
     }
 
     /**
@@ -130,10 +101,7 @@ public class ItemChoiceManager {
      * @param choiceMode One of AbsListView.CHOICE_MODE_NONE, AbsListView.CHOICE_MODE_SINGLE
      */
     public void setChoiceMode(int choiceMode) {
-        if (mChoiceMode != choiceMode) {
-            mChoiceMode = choiceMode;
-            clearSelections();
-        }
+        mState.setChoiceMode(choiceMode);
     }
 
     /**
@@ -146,46 +114,11 @@ public class ItemChoiceManager {
      * @see #setChoiceMode(int)
      */
     public boolean isItemChecked(int position) {
-        return mCheckStates.get(position);
+        return mState.isItemChecked(position);
     }
 
     void clearSelections() {
-        mCheckStates.clear();
-        mCheckedIdStates.clear();
-    }
-
-    void confirmCheckedPositionsById(int oldItemCount) {
-        // Clear out the positional check states, we'll rebuild it below from IDs.
-        mCheckStates.clear();
-
-        for (int checkedIndex = 0; checkedIndex < mCheckedIdStates.size(); checkedIndex++) {
-            final long id = mCheckedIdStates.keyAt(checkedIndex);
-            final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
-
-            final long lastPosId = mAdapter.getItemId(lastPos);
-            if (id != lastPosId) {
-                // Look around to see if the ID is nearby. If not, uncheck it.
-                final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
-                final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
-                boolean found = false;
-                for (int searchPos = start; searchPos < end; searchPos++) {
-                    final long searchId = mAdapter.getItemId(searchPos);
-                    if (id == searchId) {
-                        found = true;
-                        mCheckStates.put(searchPos, true);
-                        mCheckedIdStates.setValueAt(checkedIndex, searchPos);
-                        break;
-                    }
-                }
-
-                if (!found) {
-                    mCheckedIdStates.delete(id);
-                    checkedIndex--;
-                }
-            } else {
-                mCheckStates.put(lastPos, true);
-            }
-        }
+        mState.clear();
     }
 
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
@@ -202,25 +135,31 @@ public class ItemChoiceManager {
             Parcel inParcel = Parcel.obtain();
             inParcel.unmarshall(states, 0, states.length);
             inParcel.setDataPosition(0);
-            mCheckStates = inParcel.readSparseBooleanArray();
+            // The checked positions, which the ids below carry as well
+            inParcel.readSparseBooleanArray();
             final int numStates = inParcel.readInt();
-            mCheckedIdStates.clear();
+            mState.clear();
             for (int i=0; i<numStates; i++) {
                 final long key = inParcel.readLong();
                 final int value = inParcel.readInt();
-                mCheckedIdStates.put(key, value);
+                mState.setChecked(key, value);
             }
+            inParcel.recycle();
         }
     }
 
     public void onSaveInstanceState(Bundle outState) {
         Parcel outParcel = Parcel.obtain();
-        outParcel.writeSparseBooleanArray(mCheckStates);
-        final int numStates = mCheckedIdStates.size();
+        final int numStates = mState.getCheckedCount();
+        SparseBooleanArray checkStates = new SparseBooleanArray(numStates);
+        for (int i=0; i<numStates; i++) {
+            checkStates.put(mState.getCheckedPositionAt(i), true);
+        }
+        outParcel.writeSparseBooleanArray(checkStates);
         outParcel.writeInt(numStates);
         for (int i=0; i<numStates; i++) {
-            outParcel.writeLong(mCheckedIdStates.keyAt(i));
-            outParcel.writeInt(mCheckedIdStates.valueAt(i));
+            outParcel.writeLong(mState.getCheckedIdAt(i));
+            outParcel.writeInt(mState.getCheckedPositionAt(i));
         }
         byte[] states = outParcel.marshall();
         outState.putByteArray(SELECTED_ITEMS_KEY, states);
@@ -228,10 +167,6 @@ public class ItemChoiceManager {
     }
 
     public int getSelectedItemPosition() {
-        if ( mCheckStates.size() == 0 ) {
-            return RecyclerView.NO_POSITION;
-        } else {
-            return mCheckStates.keyAt(0);
-        }
+        return mState.getSelectedItemPosition();
     }
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.widget.AbsListView;
+
+/**
+ * The checked items behind {@link ItemChoiceManager}, kept apart from the views and the
+ * adapter so the rules for each choice mode can be tested off the device.
+ *
+ * Items are remembered by id along with the position they were last seen at.  After a data
+ * set change each checked id is looked up once through {@link ItemIds}, so finding the checked
+ * items again costs one lookup per checked item, however long the list is.  An id which can't
+ * be looked up yet, e.g. because its part of the list hasn't been paged in, stays checked at
+ * the position it was last seen at until it can.
+ */
+class ItemChoiceState {
+    static final long NO_ID = -1;
+    static final int NO_POSITION = -1;
+    static final int UNKNOWN_POSITION = -2;
+
+    /**
+     * Maps between the positions and ids of the items in the current data set.
+     */
+    interface ItemIds {
+        /**
+         * Returns the id of the item at position, or NO_ID if it isn't known.
+         */
+        long getItemId(int position);
+
+        /**
+         * Returns the position of the item with this id, NO_POSITION if it isn't there, or
+         * UNKNOWN_POSITION if that can't be told without loading more of the data set.
+         */
+        int getPositionForItemId(long id);
+    }
+
+    /**
+     * Ids for a data set without any, where an item is only known by its position.
+     */
+    static final ItemIds POSITION_IDS = new ItemIds() {
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public int getPositionForItemId(long id) {
+            return (int) id;
+        }
+    };
+
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final ItemIds mItemIds;
+    private int mChoiceMode = AbsListView.CHOICE_MODE_NONE;
+
+    // Checked ids, and the position each was last seen at
+    private final LongIntMap mCheckedIds = new LongIntMap();
+
+    ItemChoiceState(ItemIds itemIds) {
+        mItemIds = itemIds;
+    }
+
+    int getChoiceMode() {
+        return mChoiceMode;
+    }
+
+    /**
+     * Changes the choice mode, which clears the checked items.
+     */
+    void setChoiceMode(int choiceMode) {
+        if (mChoiceMode != choiceMode) {
+            mChoiceMode = choiceMode;
+            clear();
+        }
+    }
+
+    boolean isItemChecked(int position) {
+        long id = mItemIds.getItemId(position);
+        if (id == NO_ID) {
+            return false;
+        }
+        int index = mCheckedIds.indexOfKey(id);
+        return index >= 0 && mCheckedIds.valueAt(index) == position;
+    }
+
+    /**
+     * Applies a click on the item at position according to the choice mode, and returns the
+     * positions of any other items which were unchecked because of it.
+     */
+    int[] onClick(int position) {
+        long id = mItemIds.getItemId(position);
+        if (id == NO_ID) {
+            return NO_POSITIONS;
+        }
+        switch (mChoiceMode) {
+            case AbsListView.CHOICE_MODE_SINGLE: {
+                if (isItemChecked(position)) {
+                    return NO_POSITIONS;
+                }
+                int[] unchecked = new int[mCheckedIds.size()];
+                for (int i = 0; i < unchecked.length; i++) {
+                    unchecked[i] = mCheckedIds.valueAt(i);
+                }
+                mCheckedIds.clear();
+                mCheckedIds.put(id, position);
+                return unchecked;
+            }
+            case AbsListView.CHOICE_MODE_MULTIPLE: {
+                if (isItemChecked(position)) {
+                    mCheckedIds.delete(id);
+                } else {
+                    mCheckedIds.put(id, position);
+                }
+                return NO_POSITIONS;
+            }
+            default:
+                return NO_POSITIONS;
+        }
+    }
+
+    /**
+     * Finds each checked item again after the data set changed, and forgets any which are no
+     * longer there.  Items whose position is unknown are left as they are.
+     */
+    void confirmCheckedPositions() {
+        for (int i = mCheckedIds.size() - 1; i >= 0; i--) {
+            int position = mItemIds.getPositionForItemId(mCheckedIds.keyAt(i));
+            if (position == NO_POSITION) {
+                mCheckedIds.removeAt(i);
+            } else if (position != UNKNOWN_POSITION) {
+                mCheckedIds.setValueAt(i, position);
+            }
+        }
+    }
+
+    /**
+     * Returns the first checked position, or NO_POSITION if nothing is checked.
+     */
+    int getSelectedItemPosition() {
+        int selected = NO_POSITION;
+        for (int i = 0; i < mCheckedIds.size(); i++) {
+            int position = mCheckedIds.valueAt(i);
+            if (selected == NO_POSITION || position < selected) {
+                selected = position;
+            }
+        }
+        return selected;
+    }
+
+    int getCheckedCount() {
+        return mCheckedIds.size();
+    }
+
+    long getCheckedIdAt(int index) {
+        return mCheckedIds.keyAt(index);
+    }
+
+    int getCheckedPositionAt(int index) {
+        return mCheckedIds.valueAt(index);
+    }
+
+    /**
+     * Checks an item, for restoring saved state.
+     */
+    void setChecked(long id, int position) {
+        mCheckedIds.put(id, position);
+    }
+
+    void clear() {
+        mCheckedIds.clear();
+    }
+}
@@ -27,6 +27,9 @@ import android.util.AttributeSet;
 import android.widget.Button;
 import android.widget.EditText;
 
+import com.example.android.sunshine.app.sync.ForecastPrefetcher;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
     private int mMinLength;
@@ -73,12 +76,43 @@ public class LocationEditTextPreference extends EditTextPreference {
                     if (s.length() < mMinLength) {
                         // Disable OK button
                         positiveButton.setEnabled(false);
+                        ForecastPrefetcher.cancel();
                     } else {
                         // Re-enable the button.
                         positiveButton.setEnabled(true);
+                        // Start on the forecast for what has been typed so far, so it's ready
+                        // by the time OK is pressed
+                        ForecastPrefetcher.schedule(s.toString(), mPrefetchListener);
                     }
                 }
             }
         });
     }
+
+    private final ForecastPrefetcher.Listener mPrefetchListener = new ForecastPrefetcher.Listener() {
+        @Override
+        public void onPrefetched(String location, @SunshineSyncAdapter.LocationStatus int status) {
+            EditText et = getEditText();
+            // The user may have typed on since this prefetch started
+            if (getDialog() == null || !location.equals(et.getText().toString())) {
+                return;
+            }
+            if (status == SunshineSyncAdapter.LOCATION_STATUS_INVALID) {
+                et.setError(getContext().getString(R.string.pref_location_error_description, location));
+            }
+        }
+    };
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        if (positiveResult) {
+            // The location is about to change to what was typed, so let its prefetch finish
+            // for the sync to pick up
+            ForecastPrefetcher.detach();
+        } else {
+            // Anything already prefetched stays around in case it's typed again
+            ForecastPrefetcher.cancel();
+        }
+        super.onDialogClosed(positiveResult);
+    }
 }
@@ -15,6 +15,7 @@
  */
 package com.example.android.sunshine.app;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
@@ -32,11 +33,13 @@ import android.view.View;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.gcm.RegistrationIntentService;
+import com.example.android.sunshine.app.sync.CompactionTaskService;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 
-public class MainActivity extends AppCompatActivity implements ForecastFragment.Callback {
+public class MainActivity extends AppCompatActivity implements ForecastFragment.Callback,
+        ForecastRepository.Host {
 
     private final String LOG_TAG = MainActivity.class.getSimpleName();
     private static final String DETAILFRAGMENT_TAG = "DFTAG";
@@ -45,10 +48,15 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
 
     private boolean mTwoPane;
     private String mLocation;
+    private ForecastRepository mForecastRepository;
+    private StartupTaskScheduler mStartupTasks;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.begin();
         super.onCreate(savedInstanceState);
+        // Made before setContentView, which is where the fragments get at it
+        mForecastRepository = new ForecastRepository(this);
         mLocation = Utility.getPreferredLocation(this);
         Uri contentUri = getIntent() != null ? getIntent().getData() : null;
 
@@ -89,8 +97,41 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
                     WeatherContract.WeatherEntry.getDateFromUri(contentUri));
         }
 
-        SunshineSyncAdapter.initializeSyncAdapter(this);
+        // Nothing below is needed for the first frame, so it waits until that's been drawn
+        mStartupTasks = new StartupTaskScheduler(this);
+        final Context appContext = getApplicationContext();
+        mStartupTasks.schedule(StartupTaskScheduler.IN_BACKGROUND, "initializeSyncAdapter",
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        // Goes to the AccountManager, and creates the account on a first run
+                        SunshineSyncAdapter.initializeSyncAdapter(appContext);
+                    }
+                });
+        mStartupTasks.schedule(StartupTaskScheduler.WHEN_IDLE, "scheduleCompaction",
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        CompactionTaskService.schedule(appContext);
+                    }
+                });
+        mStartupTasks.schedule(StartupTaskScheduler.WHEN_IDLE, "registerGcm", new Runnable() {
+            @Override
+            public void run() {
+                registerGcmIfNeeded();
+            }
+        });
+        mStartupTasks.start();
+        StartupTrace.onCreateFinished();
+    }
+
+    @Override
+    protected void onDestroy() {
+        mStartupTasks.cancel();
+        super.onDestroy();
+    }
 
+    private void registerGcmIfNeeded() {
         // If Google Play Services is up to date, we'll want to register GCM. If it is not, we'll
         // skip the registration and this device will not receive any downstream messages from
         // our fake server. Because weather alerts are not a core feature of the app, this should
@@ -109,6 +150,11 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
         }
     }
 
+    @Override
+    public ForecastRepository getForecastRepository() {
+        return mForecastRepository;
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
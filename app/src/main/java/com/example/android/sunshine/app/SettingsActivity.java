@@ -26,6 +26,7 @@ import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastPrefetcher;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
@@ -135,7 +136,10 @@ public class SettingsActivity extends PreferenceActivity
             // we've changed the location
             // first clear locationStatus
             Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            // time how long it takes for the new forecast to show up
+            ForecastPrefetcher.onLocationChanged(Utility.getPreferredLocation(this));
+            // a sync which is still running for the old location would only be overwritten
+            SunshineSyncAdapter.syncForNewLocation(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.annotation.IntDef;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Holds back the work an activity does at launch which the first frame doesn't need, such as
+ * checking for Play Services or making sure the sync account exists, until that frame has
+ * been drawn.
+ *
+ * Tasks are scheduled during onCreate and start once the activity's first frame is drawn:
+ * {@link #AFTER_FIRST_FRAME} tasks straight after it on the main thread, {@link #WHEN_IDLE}
+ * tasks on the main thread once it has nothing else to do, and {@link #IN_BACKGROUND} tasks on
+ * a background thread.  Main thread tasks are timed into the {@link StartupTrace}.
+ *
+ * Must only be used from the main thread.
+ */
+public class StartupTaskScheduler {
+    private static final String LOG_TAG = StartupTaskScheduler.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({AFTER_FIRST_FRAME, WHEN_IDLE, IN_BACKGROUND})
+    public @interface When {}
+
+    public static final int AFTER_FIRST_FRAME = 0;
+    public static final int WHEN_IDLE = 1;
+    public static final int IN_BACKGROUND = 2;
+
+    // Startup tasks are few and short, so they share one background thread
+    private static final ExecutorService sBackgroundExecutor = Utility.newSerialExecutor();
+
+    private static final class Task {
+        final String name;
+        final Runnable runnable;
+
+        Task(String name, Runnable runnable) {
+            this.name = name;
+            this.runnable = runnable;
+        }
+    }
+
+    private final Activity mActivity;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Task> mAfterFirstFrame = new ArrayList<Task>();
+    private final ArrayList<Task> mWhenIdle = new ArrayList<Task>();
+    private final ArrayList<Task> mInBackground = new ArrayList<Task>();
+
+    private boolean mStarted;
+    private boolean mCanceled;
+    private ViewTreeObserver.OnPreDrawListener mFirstFrameListener;
+
+    private final MessageQueue.IdleHandler mIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            if (mCanceled || mWhenIdle.isEmpty()) {
+                return false;
+            }
+            // One task per idle moment, so a burst of input in between isn't kept waiting
+            runOnMainThread(mWhenIdle.remove(0));
+            return !mWhenIdle.isEmpty();
+        }
+    };
+
+    public StartupTaskScheduler(Activity activity) {
+        mActivity = activity;
+    }
+
+    /**
+     * Adds a task to run once the first frame has been drawn.  Tasks of each kind run in the
+     * order they were scheduled.
+     */
+    public void schedule(@When int when, String name, Runnable task) {
+        Task entry = new Task(name, task);
+        switch (when) {
+            case AFTER_FIRST_FRAME:
+                mAfterFirstFrame.add(entry);
+                break;
+            case WHEN_IDLE:
+                mWhenIdle.add(entry);
+                break;
+            default:
+                mInBackground.add(entry);
+        }
+        if (mStarted && !mCanceled) {
+            // Already past the first frame
+            runScheduled();
+        }
+    }
+
+    /**
+     * Waits for the first frame, call at the end of onCreate.
+     */
+    public void start() {
+        final View decorView = mActivity.getWindow().getDecorView();
+        mFirstFrameListener = new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                mFirstFrameListener = null;
+                // Posting lets the frame this is about to draw finish first
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mCanceled) {
+                            mStarted = true;
+                            runScheduled();
+                        }
+                    }
+                });
+                return true;
+            }
+        };
+        decorView.getViewTreeObserver().addOnPreDrawListener(mFirstFrameListener);
+    }
+
+    /**
+     * Drops the tasks which haven't started yet, call from onDestroy.  Background tasks which
+     * are already running finish.
+     */
+    public void cancel() {
+        mCanceled = true;
+        if (null != mFirstFrameListener) {
+            mActivity.getWindow().getDecorView().getViewTreeObserver()
+                    .removeOnPreDrawListener(mFirstFrameListener);
+            mFirstFrameListener = null;
+        }
+        Looper.myQueue().removeIdleHandler(mIdleHandler);
+        mAfterFirstFrame.clear();
+        mWhenIdle.clear();
+        mInBackground.clear();
+    }
+
+    private void runScheduled() {
+        while (!mInBackground.isEmpty()) {
+            final Task task = mInBackground.remove(0);
+            sBackgroundExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long startNanos = System.nanoTime();
+                    task.runnable.run();
+                    Log.d(LOG_TAG, "Startup task " + task.name + " took "
+                            + (System.nanoTime() - startNanos) / 1000 + "us in the background");
+                }
+            });
+        }
+        while (!mAfterFirstFrame.isEmpty() && !mCanceled) {
+            runOnMainThread(mAfterFirstFrame.remove(0));
+        }
+        if (!mWhenIdle.isEmpty() && !mCanceled) {
+            // Removed first so it's never queued twice
+            Looper.myQueue().removeIdleHandler(mIdleHandler);
+            Looper.myQueue().addIdleHandler(mIdleHandler);
+        }
+    }
+
+    private void runOnMainThread(Task task) {
+        long startNanos = System.nanoTime();
+        task.runnable.run();
+        long nanos = System.nanoTime() - startNanos;
+        StartupTrace.onDeferredTaskRun(task.name, nanos);
+    }
+}
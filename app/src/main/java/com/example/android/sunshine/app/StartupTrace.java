@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Times how long {@link MainActivity} takes from onCreate to drawing its first forecast rows,
+ * and to drawing the rows from the database.  When the list starts from a
+ * {@link com.example.android.sunshine.app.data.ForecastSnapshot} the two differ, and the gap
+ * is what the snapshot saves.
+ *
+ * Also adds up the main thread time spent in onCreate and in the tasks the
+ * {@link StartupTaskScheduler} put off until after the first frame, which together are what
+ * onCreate used to cost before they were put off.  Must only be used from the main thread.
+ */
+public class StartupTrace {
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    private static long sStartMillis = -1;
+    private static long sStartNanos;
+    private static boolean sContentDrawn;
+
+    private static long sLastCreateNanos = -1;
+    private static long sLastDeferredNanos;
+
+    private static long sLastTimeToFirstContentMillis = -1;
+    private static long sLastTimeToDatabaseContentMillis = -1;
+    private static boolean sLastFromSnapshot;
+
+    /**
+     * Starts timing a launch, call first thing in onCreate.
+     */
+    public static void begin() {
+        sStartMillis = SystemClock.elapsedRealtime();
+        sStartNanos = System.nanoTime();
+        sContentDrawn = false;
+        sLastCreateNanos = -1;
+        sLastDeferredNanos = 0;
+    }
+
+    /**
+     * Call last thing in onCreate.
+     */
+    public static void onCreateFinished() {
+        sLastCreateNanos = System.nanoTime() - sStartNanos;
+        Log.d(LOG_TAG, "onCreate took " + sLastCreateNanos / 1000 + "us on the main thread");
+    }
+
+    /**
+     * Call when a startup task put off until after the first frame has run on the main thread.
+     */
+    public static void onDeferredTaskRun(String name, long nanos) {
+        sLastDeferredNanos += nanos;
+        Log.d(LOG_TAG, "Deferred " + name + " took " + nanos / 1000 + "us on the main thread, "
+                + "onCreate plus deferred tasks come to " + (sLastCreateNanos + sLastDeferredNanos) / 1000
+                + "us");
+    }
+
+    /**
+     * Call when forecast rows have been drawn, fromSnapshot telling where they came from.  The
+     * launch is over once rows from the database have been drawn.
+     */
+    public static void onContentDrawn(boolean fromSnapshot) {
+        if (sStartMillis < 0) {
+            return;
+        }
+        long elapsedMillis = SystemClock.elapsedRealtime() - sStartMillis;
+        if (!sContentDrawn) {
+            sContentDrawn = true;
+            sLastTimeToFirstContentMillis = elapsedMillis;
+            sLastFromSnapshot = fromSnapshot;
+        }
+        if (!fromSnapshot) {
+            sLastTimeToDatabaseContentMillis = elapsedMillis;
+            Log.d(LOG_TAG, "Time to first content: " + sLastTimeToFirstContentMillis + "ms ("
+                    + (sLastFromSnapshot ? "snapshot" : "database") + "), time to database content: "
+                    + sLastTimeToDatabaseContentMillis + "ms");
+            sStartMillis = -1;
+        }
+    }
+
+    /**
+     * How long the last launch took to draw any forecast rows, or -1 if none has yet.
+     */
+    public static long getLastTimeToFirstContentMillis() {
+        return sLastTimeToFirstContentMillis;
+    }
+
+    /**
+     * How long the last launch took to draw the forecast rows from the database, or -1 if none
+     * has yet.
+     */
+    public static long getLastTimeToDatabaseContentMillis() {
+        return sLastTimeToDatabaseContentMillis;
+    }
+
+    /**
+     * How long the last onCreate took on the main thread, or -1 if it hasn't finished.
+     */
+    public static long getLastCreateMillis() {
+        return sLastCreateNanos < 0 ? -1 : sLastCreateNanos / 1000000;
+    }
+
+    /**
+     * How long the tasks put off until after the last launch's first frame have taken on the
+     * main thread so far.
+     */
+    public static long getLastDeferredMillis() {
+        return sLastDeferredNanos / 1000000;
+    }
+
+    /**
+     * Whether the first rows the last launch drew came from the snapshot.
+     */
+    public static boolean wasLastFromSnapshot() {
+        return sLastFromSnapshot;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Process wide, size bounded cache of decoded weather art.  Notifications, GCM alerts and
+ * widgets all need the same handful of condition bitmaps, so they are decoded (or downloaded)
+ * once at the size they are displayed at and shared from here.
+ *
+ * All of the get methods may block on disk or network, so they must not be called from the
+ * UI thread.
+ */
+public class WeatherArtCache {
+    private static final String LOG_TAG = WeatherArtCache.class.getSimpleName();
+
+    // Fraction of the VM heap the cache is allowed to hold on to
+    private static final int MEMORY_FRACTION = 32;
+
+    private static WeatherArtCache sInstance;
+
+    private final Context mContext;
+    private final LruCache<String, Bitmap> mCache;
+
+    /**
+     * Lets another thread give up on a {@link #getArt(int[], int, int, Request)} call, which
+     * cancels the downloads it is waiting on and returns the local art for them instead.
+     */
+    public static class Request {
+        private volatile boolean mCanceled;
+        private final List<FutureTarget<Bitmap>> mPending = new ArrayList<FutureTarget<Bitmap>>();
+
+        public void cancel() {
+            synchronized (this) {
+                mCanceled = true;
+                for (FutureTarget<Bitmap> target : mPending) {
+                    target.cancel(true);
+                }
+                mPending.clear();
+            }
+        }
+
+        public boolean isCanceled() {
+            return mCanceled;
+        }
+
+        private synchronized void track(FutureTarget<Bitmap> target) {
+            if (mCanceled) {
+                target.cancel(true);
+            } else {
+                mPending.add(target);
+            }
+        }
+    }
+
+    public static synchronized WeatherArtCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherArtCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WeatherArtCache(Context context) {
+        mContext = context;
+        int maxBytes = (int) (Runtime.getRuntime().maxMemory() / MEMORY_FRACTION);
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+    }
+
+    /**
+     * Returns the art for the weather condition at the size of a notification large icon.
+     */
+    public Bitmap getNotificationArt(int weatherId) {
+        return getArt(weatherId, getNotificationIconWidth(), getNotificationIconHeight());
+    }
+
+    /**
+     * Returns the given drawable resource at the size of a notification large icon.
+     */
+    public Bitmap getNotificationArtForResource(int resourceId) {
+        int width = getNotificationIconWidth();
+        int height = getNotificationIconHeight();
+        String key = getResourceKey(resourceId, width, height);
+        Bitmap art = mCache.get(key);
+        if (art == null) {
+            art = decodeResource(resourceId, width, height);
+            if (art != null) {
+                mCache.put(key, art);
+            }
+        }
+        return art;
+    }
+
+    /**
+     * Returns the art for the weather condition, fit into width x height, using the art pack
+     * the user has chosen.  Falls back to the local art if the remote art cannot be loaded.
+     */
+    public Bitmap getArt(int weatherId, int width, int height) {
+        SparseArray<Bitmap> art = getArt(new int[]{weatherId}, width, height);
+        return art.get(weatherId);
+    }
+
+    /**
+     * Returns the art for each of the weather conditions, fit into width x height.  Duplicate
+     * condition ids are only loaded once, and all the remote art which is not already cached is
+     * requested before waiting on any of it, so that the downloads run in parallel.  If the
+     * calling thread is interrupted the downloads still pending are canceled and the local art
+     * is returned for them, with the interrupt left set.
+     */
+    public SparseArray<Bitmap> getArt(int[] weatherIds, int width, int height) {
+        return getArt(weatherIds, width, height, new Request());
+    }
+
+    /**
+     * Same as {@link #getArt(int[], int, int)}, but can also be given up on from another
+     * thread through request.
+     */
+    public SparseArray<Bitmap> getArt(int[] weatherIds, int width, int height, Request request) {
+        SparseArray<Bitmap> art = new SparseArray<Bitmap>(weatherIds.length);
+        SparseArray<FutureTarget<Bitmap>> requests = new SparseArray<FutureTarget<Bitmap>>();
+        boolean useLocalGraphics = Utility.usingLocalGraphics(mContext);
+
+        for (int weatherId : weatherIds) {
+            if (art.indexOfKey(weatherId) >= 0 || requests.indexOfKey(weatherId) >= 0) {
+                continue;
+            }
+            int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+            String artUrl = useLocalGraphics
+                    ? null : Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+            Bitmap cached = mCache.get(getKey(artUrl, artResourceId, width, height));
+            if (cached != null) {
+                art.put(weatherId, cached);
+            } else if (artUrl != null) {
+                FutureTarget<Bitmap> target = Glide.with(mContext)
+                        .load(artUrl)
+                        .asBitmap()
+                        .error(artResourceId)
+                        .fitCenter()
+                        .into(width, height);
+                request.track(target);
+                requests.put(weatherId, target);
+            } else {
+                Bitmap decoded = decodeResource(artResourceId, width, height);
+                if (decoded != null) {
+                    mCache.put(getKey(null, artResourceId, width, height), decoded);
+                    art.put(weatherId, decoded);
+                }
+            }
+        }
+
+        boolean interrupted = false;
+        for (int i = 0; i < requests.size(); i++) {
+            int weatherId = requests.keyAt(i);
+            int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+            String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+            // Not cached under the url when we fall back, so that we try the download again
+            // next time
+            Bitmap loaded;
+            if (interrupted || request.isCanceled()) {
+                requests.valueAt(i).cancel(true);
+                loaded = decodeResource(artResourceId, width, height);
+            } else {
+                try {
+                    loaded = requests.valueAt(i).get();
+                    mCache.put(getKey(artUrl, artResourceId, width, height), loaded);
+                } catch (InterruptedException e) {
+                    // Our caller has given up on us, stop waiting on the rest of the downloads
+                    Log.w(LOG_TAG, "Interrupted while retrieving weather art from " + artUrl);
+                    Thread.currentThread().interrupt();
+                    interrupted = true;
+                    requests.valueAt(i).cancel(true);
+                    loaded = decodeResource(artResourceId, width, height);
+                } catch (CancellationException e) {
+                    // Given up on through the request
+                    loaded = decodeResource(artResourceId, width, height);
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error retrieving weather art from " + artUrl, e);
+                    loaded = decodeResource(artResourceId, width, height);
+                }
+            }
+            if (loaded != null) {
+                art.put(weatherId, loaded);
+            }
+        }
+        return art;
+    }
+
+    /**
+     * Loads the notification sized art for the given conditions ahead of time, so that the
+     * notification and alerts which follow a sync are served from memory.
+     */
+    public void warm(int[] weatherIds) {
+        getArt(weatherIds, getNotificationIconWidth(), getNotificationIconHeight());
+        logStats();
+    }
+
+    public void logStats() {
+        int hits = mCache.hitCount();
+        int misses = mCache.missCount();
+        int requests = hits + misses;
+        Log.d(LOG_TAG, "Weather art cache: " + mCache.size() + "/" + mCache.maxSize() + " bytes, "
+                + hits + " hits, " + misses + " misses ("
+                + (requests == 0 ? 0 : (100 * hits / requests)) + "% hit rate), "
+                + mCache.evictionCount() + " evictions");
+    }
+
+    // On Honeycomb and higher devices, we can retrieve the size of the large icon
+    // Prior to that, we use a fixed size
+    @SuppressLint("InlinedApi")
+    private int getNotificationIconWidth() {
+        Resources resources = mContext.getResources();
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+    }
+
+    @SuppressLint("InlinedApi")
+    private int getNotificationIconHeight() {
+        Resources resources = mContext.getResources();
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+    }
+
+    private static String getKey(String artUrl, int artResourceId, int width, int height) {
+        return artUrl != null
+                ? artUrl + "@" + width + "x" + height
+                : getResourceKey(artResourceId, width, height);
+    }
+
+    private static String getResourceKey(int resourceId, int width, int height) {
+        return "res:" + resourceId + "@" + width + "x" + height;
+    }
+
+    /**
+     * Decodes a drawable resource, subsampling while decoding so we never hold the full
+     * resolution art in memory, then scales it to fit within width x height.
+     */
+    private Bitmap decodeResource(int resourceId, int width, int height) {
+        if (resourceId == -1) {
+            return null;
+        }
+        Resources resources = mContext.getResources();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resourceId, options);
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width &&
+                options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap decoded = BitmapFactory.decodeResource(resources, resourceId, options);
+        if (decoded == null || (decoded.getWidth() <= width && decoded.getHeight() <= height)) {
+            return decoded;
+        }
+
+        float scale = Math.min((float) width / decoded.getWidth(),
+                (float) height / decoded.getHeight());
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded,
+                Math.max(1, Math.round(decoded.getWidth() * scale)),
+                Math.max(1, Math.round(decoded.getHeight() * scale)), true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes the successive forecasts for one day at one location as a compact chain of
+ * revisions.
+ *
+ * Every value is quantized to an int at the precision OWM actually reports (tenths for
+ * temperatures, pressure and wind speed, whole numbers otherwise).  A revision is then
+ * written as:
+ * <ul>
+ *     <li>the minutes since the previous revision, as a varint (minutes since the epoch for
+ *     a keyframe)</li>
+ *     <li>a byte with one bit per field which changed, plus the keyframe bit</li>
+ *     <li>for each changed field, the difference to the previous value as a zigzag varint
+ *     (the value itself for a keyframe)</li>
+ * </ul>
+ * A typical revision changes one or two fields by a little, which comes to 3 or 4 bytes.
+ *
+ * The short description is not archived, it follows from the weather id.
+ */
+class ForecastArchiveCodec {
+
+    // Fields, in the order they are written
+    static final int FIELD_WEATHER_ID = 0;
+    static final int FIELD_MIN_TEMP = 1;
+    static final int FIELD_MAX_TEMP = 2;
+    static final int FIELD_HUMIDITY = 3;
+    static final int FIELD_PRESSURE = 4;
+    static final int FIELD_WIND_SPEED = 5;
+    static final int FIELD_DEGREES = 6;
+    static final int FIELD_COUNT = 7;
+
+    // The columns each field comes from, and the factor it is quantized with
+    static final String[] FIELD_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int[] FIELD_SCALES = {1, 10, 10, 1, 10, 10, 1};
+
+    private static final int KEYFRAME_BIT = 0x80;
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+    static final class Revision {
+        final long timeMillis;
+        final int[] fields;
+
+        Revision(long timeMillis, int[] fields) {
+            this.timeMillis = timeMillis;
+            this.fields = fields;
+        }
+
+        double getValue(int field) {
+            return (double) fields[field] / FIELD_SCALES[field];
+        }
+    }
+
+    /**
+     * Quantizes the archived columns of a weather row.
+     */
+    static int[] quantize(ContentValues weatherValues) {
+        int[] fields = new int[FIELD_COUNT];
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            fields[field] = (int) Math.round(
+                    weatherValues.getAsDouble(FIELD_COLUMNS[field]) * FIELD_SCALES[field]);
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the chain with a revision for the given fields appended, or null if they are the
+     * same as the last revision in the chain and there is nothing to store.  A null or empty
+     * chain starts with a keyframe.
+     */
+    static byte[] append(byte[] chain, long timeMillis, int[] fields) {
+        Revision last = null;
+        if (chain != null && chain.length > 0) {
+            List<Revision> revisions = decode(chain);
+            last = revisions.get(revisions.size() - 1);
+        }
+
+        int mask = 0;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            if (last == null || fields[field] != last.fields[field]) {
+                mask |= 1 << field;
+            }
+        }
+        if (last != null && mask == 0) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (chain != null) {
+            out.write(chain, 0, chain.length);
+        }
+        long minutes = timeMillis / MILLIS_PER_MINUTE;
+        if (last == null) {
+            writeVarint(out, minutes);
+            out.write(mask | KEYFRAME_BIT);
+        } else {
+            // Clocks can go backwards, but revisions are only ever appended in order
+            writeVarint(out, Math.max(0, minutes - last.timeMillis / MILLIS_PER_MINUTE));
+            out.write(mask);
+        }
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            if ((mask & (1 << field)) != 0) {
+                int previous = last == null ? 0 : last.fields[field];
+                writeVarint(out, zigzag(fields[field] - previous));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes every revision in the chain, oldest first.
+     */
+    static List<Revision> decode(byte[] chain) {
+        List<Revision> revisions = new ArrayList<Revision>();
+        int[] position = {0};
+        long minutes = 0;
+        int[] fields = new int[FIELD_COUNT];
+        while (position[0] < chain.length) {
+            long time = readVarint(chain, position);
+            int mask = chain[position[0]++] & 0xff;
+            if ((mask & KEYFRAME_BIT) != 0) {
+                minutes = time;
+                fields = new int[FIELD_COUNT];
+            } else {
+                minutes += time;
+                fields = fields.clone();
+            }
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                if ((mask & (1 << field)) != 0) {
+                    fields[field] += unzigzag(readVarint(chain, position));
+                }
+            }
+            revisions.add(new Revision(minutes * MILLIS_PER_MINUTE, fields));
+        }
+        return revisions;
+    }
+
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xffffffffL;
+    }
+
+    private static int unzigzag(long value) {
+        return (int) (value >>> 1) ^ -(int) (value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] buffer, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer[position[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
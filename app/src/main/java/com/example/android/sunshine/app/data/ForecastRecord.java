@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * The few values of a single day's forecast that the widgets, Muzei and notifications show.
+ *
+ * These are read straight from {@link WeatherProvider} when it runs in our process, with the
+ * same query and indexes as the weather uris but without a Cursor, so a read doesn't allocate
+ * a CursorWindow or look up column indices.  Anywhere else they go through the ContentResolver
+ * like any other read.
+ */
+public final class ForecastRecord {
+
+    // The columns read when going through the ContentResolver, these indices must match
+    static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_SHORT_DESC
+    };
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MAX_TEMP = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_SHORT_DESC = 4;
+
+    public final long date;
+    public final int weatherId;
+    public final double high;
+    public final double low;
+    public final String shortDesc;
+
+    ForecastRecord(long date, int weatherId, double high, double low, String shortDesc) {
+        this.date = date;
+        this.weatherId = weatherId;
+        this.high = high;
+        this.low = low;
+        this.shortDesc = shortDesc;
+    }
+
+    /**
+     * Returns the first forecast for the location on or after the start date, which for the
+     * current time is today's forecast, or null if there is none.
+     */
+    public static ForecastRecord getFirstFromDate(Context context, String locationSetting,
+                                                  long startDate) {
+        return read(context, locationSetting, startDate, true);
+    }
+
+    /**
+     * Returns the forecast for the location on the given day, or null if there is none.
+     */
+    public static ForecastRecord getForDate(Context context, String locationSetting, long date) {
+        return read(context, locationSetting, date, false);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ForecastRecord read(Context context, String locationSetting, long date,
+                                       boolean onOrAfter) {
+        long normalizedDate = WeatherContract.normalizeDate(date);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            ContentProviderClient client = context.getContentResolver()
+                    .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+            if (null != client) {
+                try {
+                    ContentProvider provider = client.getLocalContentProvider();
+                    if (provider instanceof WeatherProvider) {
+                        return ((WeatherProvider) provider)
+                                .readForecast(locationSetting, normalizedDate, onOrAfter);
+                    }
+                } finally {
+                    client.release();
+                }
+            }
+        }
+
+        Uri weatherUri = onOrAfter
+                ? WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, normalizedDate)
+                : WeatherEntry.buildWeatherLocationWithDate(locationSetting, normalizedDate);
+        Cursor cursor = context.getContentResolver().query(weatherUri, COLUMNS, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        if (null == cursor) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new ForecastRecord(cursor.getLong(INDEX_DATE),
+                    cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getDouble(INDEX_MAX_TEMP),
+                    cursor.getDouble(INDEX_MIN_TEMP),
+                    cursor.getString(INDEX_SHORT_DESC));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Builds a record from the packed text WeatherProvider reads it as: the values of
+     * {@link #COLUMNS} joined with commas.  The description comes last, so any commas in it
+     * are left alone.
+     */
+    static ForecastRecord unpack(String packed) {
+        String[] values = packed.split(",", COLUMNS.length);
+        return new ForecastRecord(Long.parseLong(values[INDEX_DATE]),
+                Integer.parseInt(values[INDEX_WEATHER_ID]),
+                Double.parseDouble(values[INDEX_MAX_TEMP]),
+                Double.parseDouble(values[INDEX_MIN_TEMP]),
+                values[INDEX_SHORT_DESC]);
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * The first days of the last synced forecast, kept in a small file next to the database so a
+ * cold start can show them before the database has even been opened.
+ *
+ * The sync writes a new snapshot after every commit.  It is read by mapping the file and
+ * copying its columns straight into arrays, which costs well under a millisecond, against
+ * opening weather.db and running the location join for the first real query.  The database
+ * stays the source of truth: a snapshot is only shown until the list's loader returns.
+ *
+ * The file is a header (magic, version, location setting, coordinates, row count) followed
+ * by one array per column.  A snapshot which is missing, damaged, from an older version or for
+ * another location is ignored.
+ */
+public class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    static final String FILE_NAME = "forecast_snapshot.bin";
+
+    // Enough for a screen of the list, the rest is left to the loader
+    public static final int MAX_ROWS = 14;
+
+    private static final int MAGIC = 0x534e4150; // "SNAP"
+    private static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Bytes per row: date, weather id, high, low, humidity, pressure, wind speed, degrees
+    private static final int ROW_BYTES = 8 + 4 + 8 + 8 + 4 * 4;
+
+    private final String mLocationSetting;
+    private final double mCoordLat;
+    private final double mCoordLong;
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final double[] mHighs;
+    private final double[] mLows;
+    private final float[] mHumidities;
+    private final float[] mPressures;
+    private final float[] mWindSpeeds;
+    private final float[] mDegrees;
+
+    private ForecastSnapshot(String locationSetting, double coordLat, double coordLong, int count) {
+        mLocationSetting = locationSetting;
+        mCoordLat = coordLat;
+        mCoordLong = coordLong;
+        mDates = new long[count];
+        mWeatherIds = new int[count];
+        mHighs = new double[count];
+        mLows = new double[count];
+        mHumidities = new float[count];
+        mPressures = new float[count];
+        mWindSpeeds = new float[count];
+        mDegrees = new float[count];
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public double getCoordLat() {
+        return mCoordLat;
+    }
+
+    public double getCoordLong() {
+        return mCoordLong;
+    }
+
+    public int size() {
+        return mDates.length;
+    }
+
+    public long getDate(int row) {
+        return mDates[row];
+    }
+
+    public int getWeatherId(int row) {
+        return mWeatherIds[row];
+    }
+
+    public double getHigh(int row) {
+        return mHighs[row];
+    }
+
+    public double getLow(int row) {
+        return mLows[row];
+    }
+
+    public float getHumidity(int row) {
+        return mHumidities[row];
+    }
+
+    public float getPressure(int row) {
+        return mPressures[row];
+    }
+
+    public float getWindSpeed(int row) {
+        return mWindSpeeds[row];
+    }
+
+    public float getDegrees(int row) {
+        return mDegrees[row];
+    }
+
+    /**
+     * Replaces the snapshot with the first days of a forecast which has just been committed.
+     * The new file is written beside the old one and renamed over it, so a reader never sees
+     * half a snapshot.  Returns false if it couldn't be written.
+     */
+    public static boolean write(Context context, String locationSetting, double coordLat,
+                                double coordLong, ContentValues[] forecast) {
+        int count = Math.min(forecast.length, MAX_ROWS);
+        byte[] location = locationSetting.getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 4 + location.length + 8 + 8 + 4
+                + count * ROW_BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        buffer.putInt(location.length).put(location);
+        buffer.putDouble(coordLat).putDouble(coordLong);
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(WeatherContract.normalizeDate(
+                    forecast[i].getAsLong(WeatherEntry.COLUMN_DATE)));
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(forecast[i].getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putDouble(forecast[i].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putDouble(forecast[i].getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
+        }
+        putFloats(buffer, forecast, count, WeatherEntry.COLUMN_HUMIDITY);
+        putFloats(buffer, forecast, count, WeatherEntry.COLUMN_PRESSURE);
+        putFloats(buffer, forecast, count, WeatherEntry.COLUMN_WIND_SPEED);
+        putFloats(buffer, forecast, count, WeatherEntry.COLUMN_DEGREES);
+
+        File file = getFile(context);
+        File newFile = new File(file.getPath() + ".new");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(newFile);
+            out.write(buffer.array());
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Couldn't write the forecast snapshot", e);
+            newFile.delete();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing left to do with it
+                }
+            }
+        }
+        if (!newFile.renameTo(file)) {
+            Log.e(LOG_TAG, "Couldn't replace the forecast snapshot");
+            newFile.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private static void putFloats(ByteBuffer buffer, ContentValues[] forecast, int count,
+                                  String column) {
+        for (int i = 0; i < count; i++) {
+            buffer.putFloat(forecast[i].getAsFloat(column));
+        }
+    }
+
+    /**
+     * Reads the snapshot for this location, leaving out any days before fromDate.  Returns null
+     * if there isn't a usable snapshot for the location, or none of its days are left.
+     */
+    public static ForecastSnapshot read(Context context, String locationSetting, long fromDate) {
+        File file = getFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer, locationSetting, fromDate);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Ignoring an unreadable forecast snapshot", e);
+            return null;
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    // The mapping stays valid without it
+                }
+            }
+        }
+    }
+
+    private static ForecastSnapshot read(ByteBuffer buffer, String locationSetting, long fromDate) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        int locationLength = buffer.getInt();
+        if (locationLength < 0 || locationLength > buffer.remaining()) {
+            return null;
+        }
+        byte[] location = new byte[locationLength];
+        buffer.get(location);
+        if (!locationSetting.equals(new String(location, UTF_8))) {
+            return null;
+        }
+        double coordLat = buffer.getDouble();
+        double coordLong = buffer.getDouble();
+        int count = buffer.getInt();
+        if (count < 0 || count > MAX_ROWS || buffer.remaining() < count * ROW_BYTES) {
+            return null;
+        }
+
+        long[] dates = new long[count];
+        buffer.asLongBuffer().get(dates);
+        buffer.position(buffer.position() + count * 8);
+        // The snapshot can be days old, so start from the first day which hasn't passed
+        int skip = 0;
+        while (skip < count && dates[skip] < fromDate) {
+            skip++;
+        }
+        if (skip == count) {
+            return null;
+        }
+
+        ForecastSnapshot snapshot = new ForecastSnapshot(locationSetting, coordLat, coordLong,
+                count - skip);
+        System.arraycopy(dates, skip, snapshot.mDates, 0, count - skip);
+        getInts(buffer, snapshot.mWeatherIds, count, skip);
+        getDoubles(buffer, snapshot.mHighs, count, skip);
+        getDoubles(buffer, snapshot.mLows, count, skip);
+        getFloats(buffer, snapshot.mHumidities, count, skip);
+        getFloats(buffer, snapshot.mPressures, count, skip);
+        getFloats(buffer, snapshot.mWindSpeeds, count, skip);
+        getFloats(buffer, snapshot.mDegrees, count, skip);
+        return snapshot;
+    }
+
+    // Each column is copied in bulk, less the rows being skipped at its start
+
+    private static void getInts(ByteBuffer buffer, int[] values, int count, int skip) {
+        buffer.position(buffer.position() + skip * 4);
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + (count - skip) * 4);
+    }
+
+    private static void getDoubles(ByteBuffer buffer, double[] values, int count, int skip) {
+        buffer.position(buffer.position() + skip * 8);
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + (count - skip) * 8);
+    }
+
+    private static void getFloats(ByteBuffer buffer, float[] values, int count, int skip) {
+        buffer.position(buffer.position() + skip * 4);
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + (count - skip) * 4);
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+}
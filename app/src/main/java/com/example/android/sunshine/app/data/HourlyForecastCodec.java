@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs one day of the three hour forecast at one location into a fixed width blob.
+ *
+ * A day has eight slots, slot n covering the three hours from n * 3 hours after midnight.
+ * Every slot takes the same 14 bytes whether it is filled or not, so a day is always 112
+ * bytes and a slot is found by offset alone.  A slot holds, as shorts:
+ * <ul>
+ *     <li>the minute of the day the forecast is for</li>
+ *     <li>each value, quantized at the precision OWM reports (tenths for the temperature,
+ *     pressure and wind speed, whole numbers otherwise)</li>
+ * </ul>
+ * Which slots are filled is kept beside the blob as a mask, so an empty slot can't be
+ * mistaken for a midnight forecast of zero.
+ */
+class HourlyForecastCodec {
+
+    static final int SLOT_COUNT = 8;
+    static final long SLOT_MILLIS = 3 * 60 * 60 * 1000;
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+    // Values, in the order they are packed after the minute
+    static final int VALUE_WEATHER_ID = 0;
+    static final int VALUE_TEMP = 1;
+    static final int VALUE_HUMIDITY = 2;
+    static final int VALUE_PRESSURE = 3;
+    static final int VALUE_WIND_SPEED = 4;
+    static final int VALUE_DEGREES = 5;
+    static final int VALUE_COUNT = 6;
+
+    // The columns each value comes from, and the factor it is quantized with
+    static final String[] VALUE_COLUMNS = {
+            HourlyEntry.COLUMN_WEATHER_ID,
+            HourlyEntry.COLUMN_TEMP,
+            HourlyEntry.COLUMN_HUMIDITY,
+            HourlyEntry.COLUMN_PRESSURE,
+            HourlyEntry.COLUMN_WIND_SPEED,
+            HourlyEntry.COLUMN_DEGREES
+    };
+    private static final int[] VALUE_SCALES = {1, 10, 1, 10, 10, 1};
+
+    private static final int SLOT_FIELDS = 1 + VALUE_COUNT;
+    static final int SLOT_BYTES = SLOT_FIELDS * 2;
+    static final int DAY_BYTES = SLOT_COUNT * SLOT_BYTES;
+
+    /**
+     * One day's slots, unpacked.
+     */
+    static final class Day {
+        final long date;
+        int mask;
+        final int[] fields = new int[SLOT_COUNT * SLOT_FIELDS];
+
+        Day(long date) {
+            this.date = date;
+        }
+
+        boolean has(int slot) {
+            return (mask & (1 << slot)) != 0;
+        }
+
+        long getTime(int slot) {
+            return date + fields[slot * SLOT_FIELDS] * MILLIS_PER_MINUTE;
+        }
+
+        double getValue(int slot, int value) {
+            return (double) fields[slot * SLOT_FIELDS + 1 + value] / VALUE_SCALES[value];
+        }
+
+        /**
+         * Fills the slot for the time with the values of an hourly ContentValues, replacing
+         * whatever it held.  The time must fall on this day.
+         */
+        void set(long time, ContentValues hourlyValues) {
+            int slot = slotFor(date, time);
+            int offset = slot * SLOT_FIELDS;
+            fields[offset] = (int) ((time - date) / MILLIS_PER_MINUTE);
+            for (int value = 0; value < VALUE_COUNT; value++) {
+                fields[offset + 1 + value] = (int) Math.round(
+                        hourlyValues.getAsDouble(VALUE_COLUMNS[value]) * VALUE_SCALES[value]);
+            }
+            mask |= 1 << slot;
+        }
+    }
+
+    /**
+     * The slot a time falls in on the day starting at date.  Days which are longer for a
+     * daylight saving change have their last hour folded into the last slot.
+     */
+    static int slotFor(long date, long time) {
+        return (int) Math.max(0, Math.min(SLOT_COUNT - 1, (time - date) / SLOT_MILLIS));
+    }
+
+    static byte[] pack(Day day) {
+        ByteBuffer buffer = ByteBuffer.allocate(DAY_BYTES);
+        for (int field : day.fields) {
+            buffer.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, field)));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Unpacks a day's blob, or returns an empty day if it isn't one.
+     */
+    static Day unpack(long date, int mask, byte[] slots) {
+        Day day = new Day(date);
+        if (slots == null || slots.length != DAY_BYTES) {
+            return day;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(slots);
+        for (int i = 0; i < day.fields.length; i++) {
+            day.fields[i] = buffer.getShort();
+        }
+        day.mask = mask & ((1 << SLOT_COUNT) - 1);
+        return day;
+    }
+}
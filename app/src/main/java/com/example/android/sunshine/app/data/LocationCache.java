@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.HashMap;
+
+/**
+ * In memory copy of the location table, mapping a location setting to its row id and the
+ * city details stored with it.  The location for a setting almost never changes between syncs,
+ * so this saves the sync a query (and the commit an update) on every run.
+ *
+ * The table is the source of truth: anything which deletes or rewrites location rows outside
+ * of a forecast commit must call {@link #invalidate()}.  WeatherProvider and WeatherDbHelper
+ * take care of that for everything that goes through them.
+ */
+public class LocationCache {
+
+    public static final class Entry {
+        public final long id;
+        public final String cityName;
+        public final double lat;
+        public final double lon;
+
+        Entry(long id, String cityName, double lat, double lon) {
+            this.id = id;
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        /**
+         * Returns true if the stored row already has these city details.
+         */
+        public boolean matches(String cityName, double lat, double lon) {
+            return this.cityName.equals(cityName) && this.lat == lat && this.lon == lon;
+        }
+    }
+
+    private static final HashMap<String, Entry> sEntries = new HashMap<String, Entry>();
+
+    public static Entry get(String locationSetting) {
+        synchronized (sEntries) {
+            return sEntries.get(locationSetting);
+        }
+    }
+
+    public static void put(String locationSetting, long id, String cityName, double lat, double lon) {
+        synchronized (sEntries) {
+            sEntries.put(locationSetting, new Entry(id, cityName, lat, lon));
+        }
+    }
+
+    public static void invalidate() {
+        synchronized (sEntries) {
+            sEntries.clear();
+        }
+    }
+}
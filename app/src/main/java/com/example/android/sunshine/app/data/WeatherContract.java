@@ -43,6 +43,27 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_SYNC_TRACE = "sync_trace";
+    public static final String PATH_SYNC_HISTORY = "sync_history";
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_HOURLY = "hourly";
+
+    // Provider call which stores a complete sync in one transaction: the location is inserted or
+    // updated, the forecast rows are written and rows for days before the prune date removed.
+    // Takes the location as a ContentValues and the forecast as a ContentValues array, and
+    // returns the location id and the number of rows inserted and deleted.
+    public static final String METHOD_COMMIT_FORECAST = "commit_forecast";
+    public static final String KEY_LOCATION = "location";
+    public static final String KEY_FORECAST = "forecast";
+    public static final String KEY_PRUNE_DATE = "prune_date";
+    public static final String KEY_LOCATION_ID = "location_id";
+    public static final String KEY_INSERTED = "inserted";
+    public static final String KEY_DELETED = "deleted";
+
+    // Provider call which prunes weather on or before the prune date, locations other than the
+    // one passed as the argument and weather without a location, then shrinks the database
+    // file.  Returns the number of rows deleted.
+    public static final String METHOD_COMPACT = "compact";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -126,6 +147,9 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter capping the number of rows returned for a location
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -144,6 +168,18 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        /*
+            Returns at most limit rows from the start date onward, for reading a long forecast
+            a window at a time.  The start date is used as is rather than normalized, so with
+            rows sorted by date the next window starts just after the last date of this one.
+         */
+        public static Uri buildWeatherLocationWindow(
+                String locationSetting, long startDate, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(startDate))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit)).build();
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
@@ -164,5 +200,190 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static String getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+            // Parsed and printed again so nothing but a number ever reaches the LIMIT clause
+            if (null != limitString && limitString.length() > 0)
+                return Integer.toString(Integer.parseInt(limitString));
+            else
+                return null;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the forecast archive table.  There is one
+        row for each location and day, holding every revision of that day's forecast as an
+        encoded chain, see ForecastArchiveCodec.  Rows are keyed by the location setting rather
+        than the location id, so history survives the location being removed.
+
+        Querying archive/<location setting>/<date> returns the decoded revisions instead, one
+        row each, oldest first, with COLUMN_REVISION_TIME and the archived WeatherEntry columns.
+     */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "forecast_archive";
+
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        // Date of the forecast day, normalized like WeatherEntry.COLUMN_DATE
+        public static final String COLUMN_DATE = "date";
+        // Encoded chain of revisions, stored as a blob
+        public static final String COLUMN_REVISIONS = "revisions";
+
+        // Time a revision was fetched, in milliseconds since the epoch, precise to the minute
+        public static final String COLUMN_REVISION_TIME = "revision_time";
+
+        public static Uri buildArchiveLocationWithDate(String locationSetting, long date) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(2));
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the hourly forecast table.  There is one
+        row for each location and day, holding the day's eight three hour slots packed into a
+        fixed width blob, see HourlyForecastCodec, so reading a day is a single row fetch.  Rows
+        are keyed by the location setting, like the archive.
+
+        Slots are inserted into hourly/ one per ContentValues, with COLUMN_LOCATION_SETTING,
+        COLUMN_TIME and the value columns below, and are merged into the rows of their days.
+        Querying hourly/<location setting>/<date> returns the day's filled slots instead, one
+        row each, in time order, with COLUMN_TIME and the value columns.
+     */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        // Date of the day, normalized like WeatherEntry.COLUMN_DATE
+        public static final String COLUMN_DATE = "date";
+        // Which of the day's slots hold a forecast, one bit per slot starting from midnight
+        public static final String COLUMN_SLOT_MASK = "slot_mask";
+        // The packed slots, stored as a blob
+        public static final String COLUMN_SLOTS = "slots";
+
+        // Time the forecast in a slot is for, in milliseconds since the epoch
+        public static final String COLUMN_TIME = "time";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Temperature at the time, stored as a float
+        public static final String COLUMN_TEMP = "temp";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        public static Uri buildHourlyLocationWithDate(String locationSetting, long date) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(2));
+        }
+    }
+
+    /* Inner class that defines the table contents of the sync history table */
+    public static final class SyncHistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_HISTORY;
+
+        public static final String TABLE_NAME = "sync_history";
+
+        // Time the sync finished, stored as long in milliseconds since the epoch
+        public static final String COLUMN_TIMESTAMP = "timestamp";
+
+        // One of the SunshineSyncAdapter.LOCATION_STATUS values the sync ended with
+        public static final String COLUMN_OUTCOME = "outcome";
+
+        // How long the sync took, in milliseconds
+        public static final String COLUMN_LATENCY = "latency";
+
+        // Number of weather and location rows inserted or deleted
+        public static final String COLUMN_ROWS = "rows";
+
+        // Size of the forecast response
+        public static final String COLUMN_BYTES = "bytes";
+
+        public static Uri buildSyncHistoryUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+    }
+
+    /*
+        Timing of recent sync runs.  This is not a table, the rows are kept in memory by the sync
+        adapter and can only be queried in debug builds.  Durations are in microseconds.
+     */
+    public static final class SyncTraceEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_TRACE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_TRACE;
+
+        // Wall clock time the sync started, in milliseconds since the epoch
+        public static final String COLUMN_START_TIME = "start_time";
+        public static final String COLUMN_TOTAL = "total";
+
+        // Size of the forecast response and number of forecast rows written
+        public static final String COLUMN_BYTES = "bytes";
+        public static final String COLUMN_ROWS = "rows";
+
+        // One of the SunshineSyncAdapter.LOCATION_STATUS values
+        public static final String COLUMN_LOCATION_STATUS = "location_status";
+
+        // Per stage durations
+        public static final String COLUMN_CONNECT = "connect";
+        public static final String COLUMN_DOWNLOAD = "download";
+        public static final String COLUMN_PARSE = "parse";
+        public static final String COLUMN_ADD_LOCATION = "add_location";
+        public static final String COLUMN_BULK_INSERT = "bulk_insert";
+        public static final String COLUMN_DELETE_OLD = "delete_old";
+        public static final String COLUMN_UPDATE_WIDGETS = "update_widgets";
+        public static final String COLUMN_UPDATE_MUZEI = "update_muzei";
+        public static final String COLUMN_NOTIFY_WEATHER = "notify_weather";
+        public static final String COLUMN_UPDATE_WEAR = "update_wear";
+
+        // Wall time of the post sync fan out.  The widget, Muzei and notification updates run
+        // in parallel during it, so their durations overlap and can add up to more than this.
+        public static final String COLUMN_FAN_OUT = "fan_out";
+
+        // Single transaction storing location, forecast and pruning, on devices which can do it
+        public static final String COLUMN_COMMIT = "commit";
+
+        // Writing the snapshot of the forecast shown on the next cold start
+        public static final String COLUMN_WRITE_SNAPSHOT = "write_snapshot";
+
+        // Downloading, parsing and storing the three hour forecast, after the daily one
+        public static final String COLUMN_HOURLY = "hourly";
     }
 }
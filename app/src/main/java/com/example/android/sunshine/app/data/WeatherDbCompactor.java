@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+
+/**
+ * Prunes the weather database down to what the app can still show and gives the freed pages
+ * back to the file system.
+ *
+ * Rows are pruned by age and by location: only the preferred location is kept, and weather
+ * and hourly rows whose location is gone are dropped.  Archived forecasts are kept for a year.
+ * The file is then shrunk with incremental vacuum, a few pages at a time and within a time
+ * budget, so a compaction never holds the database for long.  {@link WeatherDbHelper} creates
+ * the database with incremental auto vacuum; a file which predates that keeps its free pages
+ * for reuse rather than being rebuilt.
+ */
+class WeatherDbCompactor {
+    private static final String LOG_TAG = WeatherDbCompactor.class.getSimpleName();
+
+    // How far back the forecast archive goes
+    private static final long ARCHIVE_RETENTION_MILLIS = 366L * 24 * 60 * 60 * 1000;
+
+    // PRAGMA auto_vacuum values
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Pages released per incremental vacuum slice, and how long we keep slicing for
+    private static final int VACUUM_SLICE_PAGES = 32;
+    private static final long VACUUM_BUDGET_MILLIS = 200;
+
+    private final SQLiteDatabase mDb;
+    private final File mDatabaseFile;
+
+    private int mRowsDeleted;
+    private int mLocationsDeleted;
+
+    WeatherDbCompactor(SQLiteDatabase db, File databaseFile) {
+        mDb = db;
+        mDatabaseFile = databaseFile;
+    }
+
+    /**
+     * Deletes weather and hourly forecasts on or before pruneDate, every location except
+     * preferredLocation along with its hourly forecasts, any weather left without a location
+     * and archived forecasts over a year older than pruneDate, then vacuums the free pages.
+     * Must not be called inside a transaction.
+     */
+    void compact(String preferredLocation, long pruneDate) {
+        String before = describeFile();
+
+        mDb.beginTransaction();
+        try {
+            mRowsDeleted = mDb.delete(WeatherEntry.TABLE_NAME,
+                    WeatherEntry.COLUMN_DATE + " <= ?",
+                    new String[]{Long.toString(pruneDate)});
+            mLocationsDeleted = mDb.delete(LocationEntry.TABLE_NAME,
+                    LocationEntry.COLUMN_LOCATION_SETTING + " != ?",
+                    new String[]{preferredLocation});
+            mRowsDeleted += mDb.delete(WeatherEntry.TABLE_NAME,
+                    WeatherEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " + LocationEntry._ID +
+                            " FROM " + LocationEntry.TABLE_NAME + ")",
+                    null);
+            mRowsDeleted += mDb.delete(HourlyEntry.TABLE_NAME,
+                    HourlyEntry.COLUMN_DATE + " <= ? OR " +
+                            HourlyEntry.COLUMN_LOCATION_SETTING + " != ?",
+                    new String[]{Long.toString(pruneDate), preferredLocation});
+            // The archive is kept for every location, but only for a year
+            mRowsDeleted += mDb.delete(ArchiveEntry.TABLE_NAME,
+                    ArchiveEntry.COLUMN_DATE + " <= ?",
+                    new String[]{Long.toString(pruneDate - ARCHIVE_RETENTION_MILLIS)});
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        if (mLocationsDeleted != 0) {
+            LocationCache.invalidate();
+        }
+
+        if (DatabaseUtils.longForQuery(mDb, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL) {
+            vacuumIncrementally();
+        }
+
+        Log.d(LOG_TAG, "Compacted weather database, deleted " + mRowsDeleted
+                + " weather, hourly and archive rows and " + mLocationsDeleted
+                + " locations. Before: " + before + ", after: " + describeFile());
+    }
+
+    int getRowsDeleted() {
+        return mRowsDeleted;
+    }
+
+    int getLocationsDeleted() {
+        return mLocationsDeleted;
+    }
+
+    /**
+     * Releases free pages in small slices until there are none left or the budget runs out.
+     * Pages we don't get to are released by the next compaction.
+     */
+    private void vacuumIncrementally() {
+        long deadline = SystemClock.elapsedRealtime() + VACUUM_BUDGET_MILLIS;
+        while (getFreelistCount() > 0 && SystemClock.elapsedRealtime() < deadline) {
+            // incremental_vacuum returns a row per page it frees and only frees them as the
+            // rows are stepped through, so the cursor has to be read to the end
+            Cursor cursor = mDb.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_SLICE_PAGES + ")", null);
+            try {
+                while (cursor.moveToNext()) {
+                    // Nothing to read, stepping is what frees the page
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    private long getFreelistCount() {
+        return DatabaseUtils.longForQuery(mDb, "PRAGMA freelist_count", null);
+    }
+
+    private String describeFile() {
+        long pageCount = DatabaseUtils.longForQuery(mDb, "PRAGMA page_count", null);
+        long freelistCount = getFreelistCount();
+        long pageSize = DatabaseUtils.longForQuery(mDb, "PRAGMA page_size", null);
+        return mDatabaseFile.length() + " bytes, " + pageCount + " pages of " + pageSize
+                + " bytes, " + freelistCount + " free ("
+                + (pageCount == 0 ? 0 : 100 * freelistCount / pageCount) + "% fragmented)";
+    }
+}
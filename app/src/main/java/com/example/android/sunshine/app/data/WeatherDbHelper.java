@@ -19,7 +19,10 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncHistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
@@ -28,7 +31,7 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 5;
 
     static final String DATABASE_NAME = "weather.db";
 
@@ -38,6 +41,13 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        // Any cached location ids belong to a database which no longer exists
+        LocationCache.invalidate();
+
+        // Only takes effect before the first table is created.  Compaction can then hand free
+        // pages back a few at a time, instead of rebuilding the whole file with a VACUUM.
+        sqLiteDatabase.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
@@ -79,8 +89,40 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // One row per sync run, trimmed by the provider to the most recent runs
+        final String SQL_CREATE_SYNC_HISTORY_TABLE = "CREATE TABLE " + SyncHistoryEntry.TABLE_NAME + " (" +
+                SyncHistoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                SyncHistoryEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL, " +
+                SyncHistoryEntry.COLUMN_OUTCOME + " INTEGER NOT NULL, " +
+                SyncHistoryEntry.COLUMN_LATENCY + " INTEGER NOT NULL, " +
+                SyncHistoryEntry.COLUMN_ROWS + " INTEGER NOT NULL, " +
+                SyncHistoryEntry.COLUMN_BYTES + " INTEGER NOT NULL " +
+                " );";
+
+        // One row per location and day, with the day's forecast revisions encoded in a blob
+        final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+                ArchiveEntry._ID + " INTEGER PRIMARY KEY," +
+                ArchiveEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                ArchiveEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_REVISIONS + " BLOB NOT NULL, " +
+                " UNIQUE (" + ArchiveEntry.COLUMN_LOCATION_SETTING + ", " +
+                ArchiveEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        // One row per location and day, with the day's three hour slots packed in a blob
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY," +
+                HourlyEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                HourlyEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_SLOT_MASK + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_SLOTS + " BLOB NOT NULL, " +
+                " UNIQUE (" + HourlyEntry.COLUMN_LOCATION_SETTING + ", " +
+                HourlyEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_HISTORY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
     }
 
     @Override
@@ -93,6 +135,9 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         // should be your top priority before modifying this method.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncHistoryEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -20,9 +20,21 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.sync.SyncTrace;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -34,6 +46,21 @@ public class WeatherProvider extends ContentProvider {
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int SYNC_TRACE = 400;
+    static final int SYNC_HISTORY = 500;
+    static final int ARCHIVE_WITH_LOCATION_AND_DATE = 600;
+    static final int HOURLY = 700;
+    static final int HOURLY_WITH_LOCATION_AND_DATE = 701;
+
+    // Number of sync runs kept in the sync history table
+    static final int SYNC_HISTORY_MAX_ROWS = 100;
+
+    // Number of write transactions the provider has run, each single statement write counting
+    // as one.  Lets tests check how many round trips storing a sync costs.
+    private static final AtomicInteger sTransactionCount = new AtomicInteger();
+
+    // Number of queries the provider has run, so tests can check what a screen costs
+    private static final AtomicInteger sQueryCount = new AtomicInteger();
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -68,6 +95,35 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    // The values of ForecastRecord.COLUMNS packed into one text value, so a record can be read
+    // with a single SQLiteStatement rather than a Cursor
+    private static final String sPackedForecastRecordColumn =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " || ',' || " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " || ',' || " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " || ',' || " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " || ',' || " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC;
+
+    // The same queries as the weather/*?date= and weather/*/* uris, for the first row only
+    private static final String sFirstForecastRecordFromDateSql =
+            SQLiteQueryBuilder.buildQueryString(false,
+                    sWeatherByLocationSettingQueryBuilder.getTables(),
+                    new String[]{sPackedForecastRecordColumn},
+                    sLocationSettingWithStartDateSelection,
+                    null,
+                    null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                    "1");
+    private static final String sForecastRecordForDateSql =
+            SQLiteQueryBuilder.buildQueryString(false,
+                    sWeatherByLocationSettingQueryBuilder.getTables(),
+                    new String[]{sPackedForecastRecordColumn},
+                    sLocationSettingAndDaySelection,
+                    null,
+                    null,
+                    null,
+                    "1");
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -89,7 +145,8 @@ public class WeatherProvider extends ContentProvider {
                 selectionArgs,
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                WeatherContract.WeatherEntry.getLimitFromUri(uri)
         );
     }
 
@@ -108,6 +165,177 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    /**
+     * Reads a single forecast without going through a Cursor, for ForecastRecord.  Returns the
+     * first forecast on or after the date, or the one on the date, or null if there is none.
+     * The date must already be normalized.
+     */
+    ForecastRecord readForecast(String locationSetting, long date, boolean onOrAfter) {
+        SQLiteStatement statement = mOpenHelper.getReadableDatabase().compileStatement(
+                onOrAfter ? sFirstForecastRecordFromDateSql : sForecastRecordForDateSql);
+        try {
+            statement.bindString(1, locationSetting);
+            statement.bindLong(2, date);
+            return ForecastRecord.unpack(statement.simpleQueryForString());
+        } catch (SQLiteDoneException e) {
+            // No rows
+            return null;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private Cursor getArchivedRevisions(Uri uri) {
+        String locationSetting = WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri);
+        long date = WeatherContract.ArchiveEntry.getDateFromUri(uri);
+
+        String[] columns = new String[1 + ForecastArchiveCodec.FIELD_COUNT];
+        columns[0] = WeatherContract.ArchiveEntry.COLUMN_REVISION_TIME;
+        System.arraycopy(ForecastArchiveCodec.FIELD_COLUMNS, 0, columns, 1,
+                ForecastArchiveCodec.FIELD_COUNT);
+        MatrixCursor revisionsCursor = new MatrixCursor(columns);
+
+        byte[] chain = getArchivedChain(mOpenHelper.getReadableDatabase(), locationSetting, date);
+        if (chain != null) {
+            for (ForecastArchiveCodec.Revision revision : ForecastArchiveCodec.decode(chain)) {
+                Object[] row = new Object[columns.length];
+                row[0] = revision.timeMillis;
+                for (int field = 0; field < ForecastArchiveCodec.FIELD_COUNT; field++) {
+                    row[1 + field] = revision.getValue(field);
+                }
+                revisionsCursor.addRow(row);
+            }
+        }
+        return revisionsCursor;
+    }
+
+    private static byte[] getArchivedChain(SQLiteDatabase db, String locationSetting, long date) {
+        Cursor cursor = db.query(WeatherContract.ArchiveEntry.TABLE_NAME,
+                new String[]{WeatherContract.ArchiveEntry.COLUMN_REVISIONS},
+                WeatherContract.ArchiveEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                        WeatherContract.ArchiveEntry.COLUMN_DATE + " = ?",
+                new String[]{locationSetting, Long.toString(date)},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getBlob(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Adds a weather row to the archived revisions of its day, unless nothing has changed since
+     * the last revision.  Must run inside a transaction.
+     */
+    private static void archiveRevision(SQLiteDatabase db, String locationSetting,
+                                        ContentValues weatherValues, long revisionTime) {
+        long date = weatherValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        byte[] chain = ForecastArchiveCodec.append(getArchivedChain(db, locationSetting, date),
+                revisionTime, ForecastArchiveCodec.quantize(weatherValues));
+        if (chain == null) {
+            return;
+        }
+        ContentValues archiveValues = new ContentValues();
+        archiveValues.put(WeatherContract.ArchiveEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        archiveValues.put(WeatherContract.ArchiveEntry.COLUMN_DATE, date);
+        archiveValues.put(WeatherContract.ArchiveEntry.COLUMN_REVISIONS, chain);
+        db.insert(WeatherContract.ArchiveEntry.TABLE_NAME, null, archiveValues);
+    }
+
+    private Cursor getHourlySlots(Uri uri) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long date = WeatherContract.HourlyEntry.getDateFromUri(uri);
+
+        String[] columns = new String[1 + HourlyForecastCodec.VALUE_COUNT];
+        columns[0] = WeatherContract.HourlyEntry.COLUMN_TIME;
+        System.arraycopy(HourlyForecastCodec.VALUE_COLUMNS, 0, columns, 1,
+                HourlyForecastCodec.VALUE_COUNT);
+        MatrixCursor slotsCursor = new MatrixCursor(columns);
+
+        HourlyForecastCodec.Day day = getHourlyDay(mOpenHelper.getReadableDatabase(),
+                locationSetting, date);
+        for (int slot = 0; slot < HourlyForecastCodec.SLOT_COUNT; slot++) {
+            if (!day.has(slot)) {
+                continue;
+            }
+            Object[] row = new Object[columns.length];
+            row[0] = day.getTime(slot);
+            for (int value = 0; value < HourlyForecastCodec.VALUE_COUNT; value++) {
+                row[1 + value] = day.getValue(slot, value);
+            }
+            slotsCursor.addRow(row);
+        }
+        return slotsCursor;
+    }
+
+    /**
+     * Reads one day of the hourly forecast with a single row fetch.  A day which hasn't been
+     * stored comes back with no slots filled.
+     */
+    private static HourlyForecastCodec.Day getHourlyDay(SQLiteDatabase db, String locationSetting,
+                                                        long date) {
+        Cursor cursor = db.query(WeatherContract.HourlyEntry.TABLE_NAME,
+                new String[]{WeatherContract.HourlyEntry.COLUMN_SLOT_MASK,
+                        WeatherContract.HourlyEntry.COLUMN_SLOTS},
+                WeatherContract.HourlyEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                        WeatherContract.HourlyEntry.COLUMN_DATE + " = ?",
+                new String[]{locationSetting, Long.toString(date)},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst()
+                    ? HourlyForecastCodec.unpack(date, cursor.getInt(0), cursor.getBlob(1))
+                    : new HourlyForecastCodec.Day(date);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Merges hourly slots into the rows of their days, each day being read and written once.
+     * Slots already stored for a day and not in the values are kept, so the earlier hours of
+     * today survive a forecast which starts from now.  Returns the number of slots stored.
+     * Must run inside a transaction.
+     */
+    private static int insertHourly(SQLiteDatabase db, ContentValues[] values) {
+        HashMap<String, HourlyForecastCodec.Day> days =
+                new HashMap<String, HourlyForecastCodec.Day>();
+        HashMap<String, String> locationSettings = new HashMap<String, String>();
+        int slotCount = 0;
+        for (ContentValues value : values) {
+            String locationSetting =
+                    value.getAsString(WeatherContract.HourlyEntry.COLUMN_LOCATION_SETTING);
+            long time = value.getAsLong(WeatherContract.HourlyEntry.COLUMN_TIME);
+            long date = WeatherContract.normalizeDate(time);
+            String key = locationSetting + "/" + date;
+            HourlyForecastCodec.Day day = days.get(key);
+            if (day == null) {
+                day = getHourlyDay(db, locationSetting, date);
+                days.put(key, day);
+                locationSettings.put(key, locationSetting);
+            }
+            day.set(time, value);
+            slotCount++;
+        }
+        for (Map.Entry<String, HourlyForecastCodec.Day> entry : days.entrySet()) {
+            HourlyForecastCodec.Day day = entry.getValue();
+            ContentValues hourlyValues = new ContentValues();
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_LOCATION_SETTING,
+                    locationSettings.get(entry.getKey()));
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_DATE, day.date);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_SLOT_MASK, day.mask);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_SLOTS, HourlyForecastCodec.pack(day));
+            if (db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, hourlyValues) == -1) {
+                throw new android.database.SQLException("Failed to insert hourly forecast for "
+                        + entry.getKey());
+            }
+        }
+        return slotCount;
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +358,15 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_HISTORY, SYNC_HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*/#", ARCHIVE_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*/#", HOURLY_WITH_LOCATION_AND_DATE);
+
+        // Sync timings are diagnostics only, so release builds don't answer for them
+        if (BuildConfig.DEBUG) {
+            matcher.addURI(authority, WeatherContract.PATH_SYNC_TRACE, SYNC_TRACE);
+        }
         return matcher;
     }
 
@@ -164,6 +401,15 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_HISTORY:
+                return WeatherContract.SyncHistoryEntry.CONTENT_TYPE;
+            case ARCHIVE_WITH_LOCATION_AND_DATE:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION_AND_DATE:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case SYNC_TRACE:
+                return WeatherContract.SyncTraceEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,6 +418,7 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        sQueryCount.incrementAndGet();
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
@@ -213,6 +460,47 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "sync_history"
+            case SYNC_HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncHistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "archive/*/#"
+            case ARCHIVE_WITH_LOCATION_AND_DATE: {
+                retCursor = getArchivedRevisions(uri);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "hourly/*/#"
+            case HOURLY_WITH_LOCATION_AND_DATE: {
+                retCursor = getHourlySlots(uri);
+                break;
+            }
+            // "sync_trace"
+            case SYNC_TRACE: {
+                retCursor = SyncTrace.getHistoryCursor();
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -227,6 +515,7 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Uri insert(Uri uri, ContentValues values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        sTransactionCount.incrementAndGet();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
 
@@ -248,6 +537,25 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case SYNC_HISTORY: {
+                long _id;
+                db.beginTransaction();
+                try {
+                    _id = db.insert(WeatherContract.SyncHistoryEntry.TABLE_NAME, null, values);
+                    // Trim the history so it never grows past the most recent runs
+                    db.delete(WeatherContract.SyncHistoryEntry.TABLE_NAME,
+                            WeatherContract.SyncHistoryEntry._ID + " <= ?",
+                            new String[]{Long.toString(_id - SYNC_HISTORY_MAX_ROWS)});
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if ( _id > 0 )
+                    returnUri = WeatherContract.SyncHistoryEntry.buildSyncHistoryUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -258,6 +566,7 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        sTransactionCount.incrementAndGet();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
@@ -270,6 +579,17 @@ public class WeatherProvider extends ContentProvider {
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    LocationCache.invalidate();
+                }
+                break;
+            case SYNC_HISTORY:
+                rowsDeleted = db.delete(
+                        WeatherContract.SyncHistoryEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -293,6 +613,7 @@ public class WeatherProvider extends ContentProvider {
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        sTransactionCount.incrementAndGet();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
 
@@ -305,6 +626,9 @@ public class WeatherProvider extends ContentProvider {
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                if (rowsUpdated != 0) {
+                    LocationCache.invalidate();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -321,6 +645,7 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                sTransactionCount.incrementAndGet();
                 db.beginTransaction();
                 int returnCount = 0;
                 try {
@@ -337,11 +662,151 @@ public class WeatherProvider extends ContentProvider {
                 }
                 getContext().getContentResolver().notifyChange(uri, null);
                 return returnCount;
+            case HOURLY:
+                sTransactionCount.incrementAndGet();
+                int slotCount;
+                db.beginTransaction();
+                try {
+                    slotCount = insertHourly(db, values);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                getContext().getContentResolver().notifyChange(uri, null);
+                return slotCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_COMMIT_FORECAST.equals(method)) {
+            return commitForecast(extras);
+        }
+        if (WeatherContract.METHOD_COMPACT.equals(method)) {
+            return compact(arg, extras.getLong(WeatherContract.KEY_PRUNE_DATE));
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Stores a whole sync in one transaction: upserts the location, writes the forecast rows
+     * against it, archives the ones which changed and prunes rows older than the prune date.
+     * Observers get one notification on the base uri, which reaches everything registered
+     * under it.
+     */
+    private Bundle commitForecast(Bundle extras) {
+        ContentValues locationValues = extras.getParcelable(WeatherContract.KEY_LOCATION);
+        String locationSetting =
+                locationValues.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        Parcelable[] forecast = extras.getParcelableArray(WeatherContract.KEY_FORECAST);
+        long pruneDate = extras.getLong(WeatherContract.KEY_PRUNE_DATE);
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long locationId;
+        int inserted = 0;
+        int deleted;
+        long revisionTime = System.currentTimeMillis();
+        sTransactionCount.incrementAndGet();
+        db.beginTransaction();
+        try {
+            locationId = upsertLocation(db, locationValues);
+            for (Parcelable parcelable : forecast) {
+                ContentValues value = (ContentValues) parcelable;
+                value.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                normalizeDate(value);
+                if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    inserted++;
+                }
+                archiveRevision(db, locationSetting, value, revisionTime);
+            }
+            deleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                    new String[]{Long.toString(pruneDate)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // Only remember the location once the row it points at is committed
+        LocationCache.put(locationSetting, locationId,
+                locationValues.getAsString(WeatherContract.LocationEntry.COLUMN_CITY_NAME),
+                locationValues.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT),
+                locationValues.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG));
+        getContext().getContentResolver().notifyChange(WeatherContract.BASE_CONTENT_URI, null);
+
+        Bundle result = new Bundle();
+        result.putLong(WeatherContract.KEY_LOCATION_ID, locationId);
+        result.putInt(WeatherContract.KEY_INSERTED, inserted);
+        result.putInt(WeatherContract.KEY_DELETED, deleted);
+        return result;
+    }
+
+    /**
+     * Returns the id of the location with the values' location setting, refreshing its city name
+     * and coordinates, or inserts it if there is none yet.  When the cached row already holds
+     * these values the table isn't touched at all.  Must run inside a transaction.
+     */
+    private long upsertLocation(SQLiteDatabase db, ContentValues locationValues) {
+        String locationSetting =
+                locationValues.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        LocationCache.Entry cached = LocationCache.get(locationSetting);
+        if (cached != null && cached.matches(
+                locationValues.getAsString(WeatherContract.LocationEntry.COLUMN_CITY_NAME),
+                locationValues.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT),
+                locationValues.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG))) {
+            return cached.id;
+        }
+
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            if (cursor.moveToFirst()) {
+                long locationId = cursor.getLong(0);
+                db.update(WeatherContract.LocationEntry.TABLE_NAME, locationValues,
+                        WeatherContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationId)});
+                return locationId;
+            }
+        } finally {
+            cursor.close();
+        }
+        long locationId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, locationValues);
+        if (locationId == -1) {
+            throw new android.database.SQLException("Failed to insert location " + locationSetting);
+        }
+        return locationId;
+    }
+
+    private Bundle compact(String preferredLocation, long pruneDate) {
+        WeatherDbCompactor compactor = new WeatherDbCompactor(mOpenHelper.getWritableDatabase(),
+                getContext().getDatabasePath(WeatherDbHelper.DATABASE_NAME));
+        sTransactionCount.incrementAndGet();
+        compactor.compact(preferredLocation, pruneDate);
+
+        int deleted = compactor.getRowsDeleted() + compactor.getLocationsDeleted();
+        if (deleted != 0) {
+            getContext().getContentResolver().notifyChange(WeatherContract.BASE_CONTENT_URI, null);
+        }
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.KEY_DELETED, deleted);
+        return result;
+    }
+
+    static int getTransactionCount() {
+        return sTransactionCount.get();
+    }
+
+    public static int getQueryCount() {
+        return sQueryCount.get();
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.google.android.gms.gcm.GcmNetworkManager;
+import com.google.android.gms.gcm.GcmTaskService;
+import com.google.android.gms.gcm.PeriodicTask;
+import com.google.android.gms.gcm.Task;
+import com.google.android.gms.gcm.TaskParams;
+
+/**
+ * Compacts the weather database once a day while the device is charging, away from any sync,
+ * so the deletes and the vacuum slices don't compete with anything the user is looking at.
+ *
+ * Compaction goes through the provider's call method, so older devices are left with the age
+ * pruning every sync does and never schedule it.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class CompactionTaskService extends GcmTaskService {
+    private static final String LOG_TAG = CompactionTaskService.class.getSimpleName();
+
+    private static final String TASK_TAG = "compact_database";
+    private static final long PERIOD_SECONDS = 24 * 60 * 60;
+    private static final long FLEX_SECONDS = 6 * 60 * 60;
+
+    /**
+     * Schedules the daily compaction.  Scheduling again replaces the task, so this is safe to
+     * call on every start.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        PeriodicTask task = new PeriodicTask.Builder()
+                .setService(CompactionTaskService.class)
+                .setTag(TASK_TAG)
+                .setPeriod(PERIOD_SECONDS)
+                .setFlex(FLEX_SECONDS)
+                .setRequiresCharging(true)
+                .setRequiredNetwork(Task.NETWORK_STATE_ANY)
+                .setPersisted(true)
+                .setUpdateCurrent(true)
+                .build();
+        GcmNetworkManager.getInstance(context).schedule(task);
+    }
+
+    @Override
+    public void onInitializeTasks() {
+        // Scheduled tasks are dropped when the app or Google Play services is updated
+        schedule(this);
+    }
+
+    @Override
+    public int onRunTask(TaskParams params) {
+        // Same as the sync prunes to: everything before today, in the local time of the device
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianToday = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        dayTime = new Time();
+        long pruneDate = dayTime.setJulianDay(julianToday - 1);
+
+        long startMillis = SystemClock.elapsedRealtime();
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.KEY_PRUNE_DATE, pruneDate);
+        Bundle result = getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_COMPACT, Utility.getPreferredLocation(this), extras);
+        Log.d(LOG_TAG, "Compaction deleted " + result.getInt(WeatherContract.KEY_DELETED)
+                + " rows in " + (SystemClock.elapsedRealtime() - startMillis) + "ms");
+        return GcmNetworkManager.RESULT_SUCCESS;
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.LocationCache;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.net.HttpURLConnection;
+import java.util.Vector;
+
+/**
+ * Parses an OpenWeatherMap daily forecast and commits it: the location, the forecast rows and
+ * the snapshot the list starts from, along with the location status.  Used by the sync, and by
+ * {@link ForecastPrefetcher} to commit a forecast fetched while the location was being typed
+ * without waiting for a sync.  Everything else that shows the forecast is left to the sync.
+ */
+class ForecastCommitter {
+    private static final String LOG_TAG = ForecastCommitter.class.getSimpleName();
+
+    /**
+     * Lets the sync back out of a commit it has been canceled for.
+     */
+    interface Checkpoints {
+        void throwIfCanceled(String checkpoint) throws SunshineSyncAdapter.SyncCanceledException;
+    }
+
+    /**
+     * For a commit which nothing cancels.  It still backs out if the location has changed.
+     */
+    static final Checkpoints NOT_CANCELABLE = new Checkpoints() {
+        @Override
+        public void throwIfCanceled(String checkpoint) {
+        }
+    };
+
+    private final Context mContext;
+    private final SyncTrace mTrace;
+    private final SyncResult mSyncResult;
+    private final Checkpoints mCheckpoints;
+
+    ForecastCommitter(Context context, SyncTrace trace, SyncResult syncResult,
+                      Checkpoints checkpoints) {
+        mContext = context;
+        mTrace = trace;
+        mSyncResult = syncResult;
+        mCheckpoints = checkpoints;
+    }
+
+    /**
+     * Take the String representing the complete forecast in JSON Format and
+     * pull out the data we need to construct the Strings needed for the wireframes.
+     *
+     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
+     * into an Object hierarchy for us.
+     *
+     * Reports the location status either way.  Returns the days committed, or null if the
+     * response was an error.
+     */
+    ContentValues[] commit(String forecastJsonStr, String locationSetting)
+            throws SunshineSyncAdapter.SyncCanceledException {
+
+        // Now we have a String representing the complete forecast in JSON Format.
+        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
+        // into an Object hierarchy for us.
+
+        // These are the names of the JSON objects that need to be extracted.
+
+        // Location information
+        final String OWM_CITY = "city";
+        final String OWM_CITY_NAME = "name";
+        final String OWM_COORD = "coord";
+
+        // Location coordinate
+        final String OWM_LATITUDE = "lat";
+        final String OWM_LONGITUDE = "lon";
+
+        // Weather information.  Each day's forecast info is an element of the "list" array.
+        final String OWM_LIST = "list";
+
+        final String OWM_PRESSURE = "pressure";
+        final String OWM_HUMIDITY = "humidity";
+        final String OWM_WINDSPEED = "speed";
+        final String OWM_WIND_DIRECTION = "deg";
+
+        // All temperatures are children of the "temp" object.
+        final String OWM_TEMPERATURE = "temp";
+        final String OWM_MAX = "max";
+        final String OWM_MIN = "min";
+
+        final String OWM_WEATHER = "weather";
+        final String OWM_DESCRIPTION = "main";
+        final String OWM_WEATHER_ID = "id";
+
+        final String OWM_MESSAGE_CODE = "cod";
+
+        try {
+            mTrace.begin(SyncTrace.STAGE_PARSE);
+            JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+            // do we have an error?
+            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
+                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+
+                switch (errorCode) {
+                    case HttpURLConnection.HTTP_OK:
+                        break;
+                    case HttpURLConnection.HTTP_NOT_FOUND:
+                        reportLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_INVALID);
+                        return null;
+                    default:
+                        reportLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+                        return null;
+                }
+            }
+
+            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+            String cityName = cityJson.getString(OWM_CITY_NAME);
+
+            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+            // Insert the new weather information into the database
+            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+
+            // OWM returns daily forecasts based upon the local time of the city that is being
+            // asked for, which means that we need to know the GMT offset to translate this data
+            // properly.
+
+            // Since this data is also sent in-order and the first day is always the
+            // current day, we're going to take advantage of that to get a nice
+            // normalized UTC date for all of our weather.
+
+            Time dayTime = new Time();
+            dayTime.setToNow();
+
+            // we start at the day returned by local time. Otherwise this is a mess.
+            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+            // now we work exclusively in UTC
+            dayTime = new Time();
+
+            for(int i = 0; i < weatherArray.length(); i++) {
+                // These are the values that will be collected.
+                long dateTime;
+                double pressure;
+                int humidity;
+                double windSpeed;
+                double windDirection;
+
+                double high;
+                double low;
+
+                String description;
+                int weatherId;
+
+                mCheckpoints.throwIfCanceled("while parsing");
+
+                // Get the JSON object representing the day
+                JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+                // Cheating to convert this to UTC time, which is what we want anyhow
+                dateTime = dayTime.setJulianDay(julianStartDay+i);
+
+                pressure = dayForecast.getDouble(OWM_PRESSURE);
+                humidity = dayForecast.getInt(OWM_HUMIDITY);
+                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
+                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                JSONObject weatherObject =
+                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+                description = weatherObject.getString(OWM_DESCRIPTION);
+                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+                high = temperatureObject.getDouble(OWM_MAX);
+                low = temperatureObject.getDouble(OWM_MIN);
+
+
+                ContentValues weatherValues = new ContentValues();
+
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+
+                cVVector.add(weatherValues);
+            }
+
+            mTrace.end();
+
+            ContentValues[] cvArray = new ContentValues[cVVector.size()];
+            cVVector.toArray(cvArray);
+
+            // add to database
+            if ( cvArray.length > 0 ) {
+
+                // Last chance to back out.  A sync for a location the user has since moved
+                // away from is as good as canceled, even if the cancel hasn't reached us yet.
+                mCheckpoints.throwIfCanceled("before committing");
+                if (!locationSetting.equals(Utility.getPreferredLocation(mContext))) {
+                    throw new SunshineSyncAdapter.SyncCanceledException(
+                            "after the location changed");
+                }
+
+                // delete old data so we don't build up an endless history
+                long pruneDate = dayTime.setJulianDay(julianStartDay-1);
+                commitForecast(locationSetting, cityName, cityLatitude, cityLongitude,
+                        cvArray, pruneDate);
+
+                // What the list shows first on the next cold start
+                mTrace.begin(SyncTrace.STAGE_WRITE_SNAPSHOT);
+                ForecastSnapshot.write(mContext, locationSetting, cityLatitude, cityLongitude,
+                        cvArray);
+                mTrace.end();
+            }
+            Log.d(LOG_TAG, "Committed " + cvArray.length + " days for " + locationSetting);
+            reportLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_OK);
+            return cvArray;
+
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            e.printStackTrace();
+            reportLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the location, the new forecast and deletes rows up to pruneDate.  Where the
+     * provider supports it this is a single transaction with a single change notification,
+     * older devices fall back to separate provider calls.
+     */
+    private void commitForecast(String locationSetting, String cityName, double lat, double lon,
+                                ContentValues[] forecast, long pruneDate) {
+        mSyncResult.stats.numEntries += forecast.length;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            commitForecastInTransaction(locationSetting, cityName, lat, lon, forecast, pruneDate);
+            return;
+        }
+
+        mTrace.begin(SyncTrace.STAGE_ADD_LOCATION);
+        long locationId = addLocation(locationSetting, cityName, lat, lon);
+        mTrace.end();
+        for (ContentValues weatherValues : forecast) {
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        }
+
+        mTrace.begin(SyncTrace.STAGE_BULK_INSERT);
+        int inserted = mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, forecast);
+        mTrace.end();
+        mTrace.addRows(inserted);
+        mSyncResult.stats.numInserts += inserted;
+
+        mTrace.begin(SyncTrace.STAGE_DELETE_OLD);
+        mSyncResult.stats.numDeletes += mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[] {Long.toString(pruneDate)});
+        mTrace.end();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void commitForecastInTransaction(String locationSetting, String cityName, double lat,
+                                             double lon, ContentValues[] forecast, long pruneDate) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.KEY_LOCATION, locationValues);
+        extras.putParcelableArray(WeatherContract.KEY_FORECAST, forecast);
+        extras.putLong(WeatherContract.KEY_PRUNE_DATE, pruneDate);
+
+        mTrace.begin(SyncTrace.STAGE_COMMIT);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_COMMIT_FORECAST, null, extras);
+        mTrace.end();
+
+        int inserted = result.getInt(WeatherContract.KEY_INSERTED);
+        mTrace.addRows(inserted);
+        mSyncResult.stats.numInserts += inserted;
+        mSyncResult.stats.numDeletes += result.getInt(WeatherContract.KEY_DELETED);
+    }
+
+    /**
+     * Helper method to handle insertion of a new location in the weather database.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityName A human-readable city name, e.g "Mountain View"
+     * @param lat the latitude of the city
+     * @param lon the longitude of the city
+     * @return the row ID of the added location.
+     */
+    private long addLocation(String locationSetting, String cityName, double lat, double lon) {
+        long locationId;
+
+        // The location id almost never changes, so try the cache before the database
+        LocationCache.Entry cached = LocationCache.get(locationSetting);
+        if (cached != null) {
+            return cached.id;
+        }
+
+        // First, check if the location with this city name exists in the db
+        Cursor locationCursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+
+        if (locationCursor.moveToFirst()) {
+            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
+            locationId = locationCursor.getLong(locationIdIndex);
+        } else {
+            // Now that the content provider is set up, inserting rows of data is pretty simple.
+            // First create a ContentValues object to hold the data you want to insert.
+            ContentValues locationValues = new ContentValues();
+
+            // Then add the data, along with the corresponding name of the data type,
+            // so the content provider knows what kind of value is being inserted.
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+            // Finally, insert location data into the database.
+            Uri insertedUri = mContext.getContentResolver().insert(
+                    WeatherContract.LocationEntry.CONTENT_URI,
+                    locationValues
+            );
+
+            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
+            locationId = ContentUris.parseId(insertedUri);
+            mSyncResult.stats.numInserts++;
+        }
+
+        locationCursor.close();
+        LocationCache.put(locationSetting, locationId, cityName, lat, lon);
+        // Wait, that worked?  Yes!
+        return locationId;
+    }
+
+    /**
+     * Records the location status for the UI, the trace and the sync result.
+     */
+    void reportLocationStatus(@SunshineSyncAdapter.LocationStatus int locationStatus) {
+        mTrace.setLocationStatus(locationStatus);
+        // Let the framework know how the sync failed.  A server which is down is a soft error
+        // and will be retried with backoff, a response we can't parse will not get any better
+        // by retrying.  An invalid location is the user's to fix, so it isn't an error for the
+        // sync itself.
+        switch (locationStatus) {
+            case SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN:
+                mSyncResult.stats.numIoExceptions++;
+                break;
+            case SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID:
+                mSyncResult.stats.numParseExceptions++;
+                break;
+        }
+        SunshineSyncAdapter.setLocationStatus(mContext, locationStatus);
+    }
+}
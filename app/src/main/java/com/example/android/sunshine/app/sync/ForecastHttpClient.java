@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Random;
+
+/**
+ * Downloads forecasts over HTTP with bounded waits and a few retries.
+ *
+ * Every GET has a connect timeout, a read timeout and a deadline for the whole call including
+ * retries, so a server which stops answering can't hold the sync thread.  Connection resets,
+ * timeouts and 5xx responses are retried with exponential backoff and full jitter.  Responses
+ * are always read to the end and closed rather than disconnected, which leaves the connection
+ * in HttpURLConnection's keep-alive pool for the next call; only a connection which failed is
+ * thrown away.
+ */
+public class ForecastHttpClient {
+    private static final String LOG_TAG = ForecastHttpClient.class.getSimpleName();
+
+    // Don't start another attempt with less than this left before the deadline
+    private static final long MIN_ATTEMPT_MILLIS = 250;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final long mDeadlineMillis;
+    private final int mMaxAttempts;
+    private final long mBaseBackoffMillis;
+    private final Random mRandom = new Random();
+
+    /**
+     * @param connectTimeoutMillis how long to wait for a connection to be set up
+     * @param readTimeoutMillis how long to wait for each read of the response
+     * @param deadlineMillis how long a call may take in total, retries included
+     * @param maxAttempts how many times a call is tried before giving up
+     * @param baseBackoffMillis the backoff before the first retry, doubled for each one after
+     */
+    public ForecastHttpClient(int connectTimeoutMillis, int readTimeoutMillis, long deadlineMillis,
+                              int maxAttempts, long baseBackoffMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mDeadlineMillis = deadlineMillis;
+        mMaxAttempts = maxAttempts;
+        mBaseBackoffMillis = baseBackoffMillis;
+    }
+
+    public Call newCall(URL url) {
+        return new Call(url);
+    }
+
+    /**
+     * A single GET, which may be tried several times.  Executed on one thread and canceled
+     * from any.
+     */
+    public class Call {
+        private final URL mUrl;
+
+        private volatile boolean mCanceled;
+        private volatile HttpURLConnection mConnection;
+
+        private int mAttempts;
+        private int mResponseCode = -1;
+        private long mConnectNanos;
+        private long mDownloadNanos;
+
+        Call(URL url) {
+            mUrl = url;
+        }
+
+        /**
+         * Returns the body of the response.  Client errors (4xx) are not retried and their
+         * body is returned too, OWM describes what went wrong in it.
+         *
+         * @throws InterruptedIOException if the call was canceled
+         * @throws IOException if every attempt failed or the deadline passed
+         */
+        public String execute() throws IOException {
+            long deadline = SystemClock.elapsedRealtime() + mDeadlineMillis;
+            IOException lastFailure = null;
+            while (mAttempts < mMaxAttempts) {
+                if (mAttempts > 0) {
+                    waitBeforeRetry(deadline);
+                }
+                long remainingMillis = deadline - SystemClock.elapsedRealtime();
+                if (remainingMillis < MIN_ATTEMPT_MILLIS) {
+                    break;
+                }
+                mAttempts++;
+                try {
+                    String body = attempt(deadline, remainingMillis);
+                    if (mResponseCode < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                        return body;
+                    }
+                    lastFailure = new IOException("Server error " + mResponseCode);
+                } catch (IOException e) {
+                    if (mCanceled) {
+                        throw new InterruptedIOException("Canceled");
+                    }
+                    lastFailure = e;
+                }
+                Log.w(LOG_TAG, "Attempt " + mAttempts + " of " + mMaxAttempts + " failed: "
+                        + lastFailure.getMessage());
+            }
+            if (lastFailure == null) {
+                lastFailure = new SocketTimeoutException("No time left for a request");
+            }
+            throw lastFailure;
+        }
+
+        /**
+         * Cancels the call.  An attempt blocked connecting or reading fails straight away, and
+         * no further attempts are made.
+         */
+        public void cancel() {
+            mCanceled = true;
+            HttpURLConnection connection = mConnection;
+            if (connection != null) {
+                connection.disconnect();
+            }
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        public int getAttempts() {
+            return mAttempts;
+        }
+
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        /**
+         * Time spent connecting and waiting for response headers, over all attempts.
+         */
+        public long getConnectNanos() {
+            return mConnectNanos;
+        }
+
+        /**
+         * Time spent reading response bodies, over all attempts.
+         */
+        public long getDownloadNanos() {
+            return mDownloadNanos;
+        }
+
+        private String attempt(long deadline, long remainingMillis) throws IOException {
+            throwIfCanceled();
+            long startNanos = System.nanoTime();
+            HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+            mConnection = connection;
+            boolean readToEnd = false;
+            try {
+                connection.setRequestMethod("GET");
+                connection.setConnectTimeout((int) Math.min(mConnectTimeoutMillis, remainingMillis));
+                connection.setReadTimeout((int) Math.min(mReadTimeoutMillis, remainingMillis));
+                // A cancel which came in before mConnection was set has to be caught here
+                throwIfCanceled();
+                mResponseCode = connection.getResponseCode();
+                long headersNanos = System.nanoTime();
+                mConnectNanos += headersNanos - startNanos;
+
+                InputStream in = mResponseCode < HttpURLConnection.HTTP_BAD_REQUEST
+                        ? connection.getInputStream() : connection.getErrorStream();
+                String body = in == null ? "" : readBody(in, deadline);
+                mDownloadNanos += System.nanoTime() - headersNanos;
+                readToEnd = true;
+                return body;
+            } finally {
+                mConnection = null;
+                if (!readToEnd) {
+                    // Don't hand a connection in an unknown state back to the pool
+                    connection.disconnect();
+                }
+            }
+        }
+
+        private String readBody(InputStream in, long deadline) throws IOException {
+            StringBuilder body = new StringBuilder();
+            Reader reader = new InputStreamReader(in, "UTF-8");
+            try {
+                char[] buffer = new char[4096];
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    body.append(buffer, 0, read);
+                    throwIfCanceled();
+                    if (SystemClock.elapsedRealtime() > deadline) {
+                        throw new SocketTimeoutException("Deadline passed while reading");
+                    }
+                }
+            } finally {
+                // Closing a fully read stream returns the connection to the pool
+                reader.close();
+            }
+            return body.toString();
+        }
+
+        /**
+         * Sleeps for a random time up to the backoff for this retry, so clients which failed
+         * together don't all retry together.  Never sleeps past the deadline.
+         */
+        private synchronized void waitBeforeRetry(long deadline) throws InterruptedIOException {
+            long backoffMillis = mBaseBackoffMillis << (mAttempts - 1);
+            long waitMillis = Math.min((long) (mRandom.nextDouble() * backoffMillis),
+                    deadline - SystemClock.elapsedRealtime());
+            long wakeTime = SystemClock.elapsedRealtime() + waitMillis;
+            try {
+                while (!mCanceled && waitMillis > 0) {
+                    wait(waitMillis);
+                    waitMillis = wakeTime - SystemClock.elapsedRealtime();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting to retry");
+            }
+            throwIfCanceled();
+        }
+
+        private void throwIfCanceled() throws InterruptedIOException {
+            if (mCanceled) {
+                throw new InterruptedIOException("Canceled");
+            }
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SyncResult;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches the forecast for a location while the user is still typing it into the settings,
+ * so it can be committed as soon as they confirm instead of waiting for a sync to be scheduled
+ * and download it.  The response is checked as it comes in, which also tells the settings
+ * screen early on whether OWM knows the location at all.
+ *
+ * Results are kept for a few minutes, keyed by the exact location string.  Once the user
+ * confirms, {@link #commitPrefetched} writes the forecast straight away, and the sync which
+ * follows takes the same response instead of downloading it again.  Either of them waits for
+ * a prefetch which is still downloading rather than starting a second download.
+ *
+ * Also keeps the time-to-first-forecast metric: from the location preference changing until
+ * the forecast list first shows weather for the new location.
+ */
+public class ForecastPrefetcher {
+    private static final String LOG_TAG = ForecastPrefetcher.class.getSimpleName();
+
+    // How long the user has to stop typing before a prefetch starts
+    static final long DEBOUNCE_MILLIS = 750;
+    // A prefetched forecast older than this is left to the sync to fetch again
+    private static final long MAX_AGE_MILLIS = 10 * 60 * 1000;
+    // Only the last few locations typed are worth keeping
+    private static final int MAX_RESULTS = 4;
+
+    // Prefetches are speculative, so they give up sooner and retry less than a sync does
+    private static final ForecastHttpClient sHttpClient = new ForecastHttpClient(
+            10 * 1000, 10 * 1000, 20 * 1000, 2, 500);
+
+    // One prefetch at a time, the newest location typed is the only one that matters.  The
+    // thread goes away when nothing has been typed for a while.
+    private static final ExecutorService sExecutor = Utility.newSerialExecutor();
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Told on the main thread what a prefetch found out about a location.
+     */
+    public interface Listener {
+        void onPrefetched(String location, @SunshineSyncAdapter.LocationStatus int status);
+    }
+
+    private static final class Result {
+        final String forecastJson;
+        @SunshineSyncAdapter.LocationStatus final int status;
+        final long fetchedAtMillis;
+
+        Result(String forecastJson, @SunshineSyncAdapter.LocationStatus int status) {
+            this.forecastJson = forecastJson;
+            this.status = status;
+            this.fetchedAtMillis = SystemClock.elapsedRealtime();
+        }
+
+        boolean isFresh() {
+            return SystemClock.elapsedRealtime() - fetchedAtMillis < MAX_AGE_MILLIS;
+        }
+    }
+
+    private static final LruCache<String, Result> sResults = new LruCache<String, Result>(MAX_RESULTS);
+
+    // Only touched on the main thread
+    private static Runnable sPendingPrefetch;
+    private static Listener sListener;
+
+    // The prefetch currently downloading, so a newer one can cancel it
+    private static volatile ForecastHttpClient.Call sCall;
+
+    private static final class InFlight {
+        final String location;
+        final Future<?> future;
+
+        InFlight(String location, Future<?> future) {
+            this.location = location;
+            this.future = future;
+        }
+    }
+
+    // The last prefetch handed to the executor, so the sync can wait for it to finish
+    private static volatile InFlight sInFlight;
+
+    // Time to first forecast, only touched on the main thread
+    private static String sChangedLocation;
+    private static long sChangedAtMillis;
+    private static boolean sChangePrefetched;
+    private static long sLastTimeToForecastMillis = -1;
+
+    /**
+     * Starts prefetching the forecast for location once the user has stopped typing for a
+     * moment.  Replaces any prefetch which hasn't finished yet.  Call on the main thread.
+     */
+    public static void schedule(final String location, Listener listener) {
+        cancelPending();
+        sListener = listener;
+        Result cached = getFresh(location);
+        if (cached != null) {
+            if (listener != null) {
+                listener.onPrefetched(location, cached.status);
+            }
+            return;
+        }
+        sPendingPrefetch = new Runnable() {
+            @Override
+            public void run() {
+                sPendingPrefetch = null;
+                sInFlight = new InFlight(location, sExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        prefetch(location);
+                    }
+                }));
+            }
+        };
+        sMainHandler.postDelayed(sPendingPrefetch, DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Stops any prefetch which is waiting or downloading and forgets the listener.  Results
+     * already fetched are kept.  Call on the main thread.
+     */
+    public static void cancel() {
+        cancelPending();
+        sListener = null;
+    }
+
+    /**
+     * Lets the prefetch for what the user confirmed run to completion, starting it now if it
+     * is still waiting on the debounce, and forgets the listener.  Call on the main thread.
+     */
+    public static void detach() {
+        if (sPendingPrefetch != null) {
+            sMainHandler.removeCallbacks(sPendingPrefetch);
+            sPendingPrefetch.run();
+        }
+        sListener = null;
+    }
+
+    private static void cancelPending() {
+        if (sPendingPrefetch != null) {
+            sMainHandler.removeCallbacks(sPendingPrefetch);
+            sPendingPrefetch = null;
+        }
+        ForecastHttpClient.Call call = sCall;
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    private static void prefetch(final String location) {
+        if (getFresh(location) != null) {
+            return;
+        }
+        long startMillis = SystemClock.elapsedRealtime();
+        Result result;
+        try {
+            ForecastHttpClient.Call call = sHttpClient.newCall(
+                    SunshineSyncAdapter.buildForecastUrl(location));
+            sCall = call;
+            try {
+                String forecastJson = call.execute();
+                result = new Result(forecastJson, validate(forecastJson));
+            } finally {
+                sCall = null;
+            }
+        } catch (IOException e) {
+            // Canceled for a newer location, or the server is down.  Either way the sync will
+            // find out for itself once the user confirms.
+            Log.d(LOG_TAG, "Prefetch for " + location + " failed: " + e.getMessage());
+            return;
+        }
+        Log.d(LOG_TAG, "Prefetched " + location + " in " + (SystemClock.elapsedRealtime() - startMillis)
+                + "ms, status " + result.status);
+        sResults.put(location, result);
+
+        final int status = result.status;
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (sListener != null) {
+                    sListener.onPrefetched(location, status);
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks a response the same way the sync would before it commits anything, without
+     * going through every day of the forecast.
+     */
+    @SunshineSyncAdapter.LocationStatus
+    static int validate(String forecastJson) {
+        if (forecastJson.length() == 0) {
+            return SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        }
+        try {
+            JSONObject forecast = new JSONObject(forecastJson);
+            if (forecast.has("cod")) {
+                switch (forecast.getInt("cod")) {
+                    case HttpURLConnection.HTTP_OK:
+                        break;
+                    case HttpURLConnection.HTTP_NOT_FOUND:
+                        return SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                    default:
+                        return SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                }
+            }
+            if (forecast.getJSONArray("list").length() == 0 || !forecast.has("city")) {
+                return SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+            }
+            return SunshineSyncAdapter.LOCATION_STATUS_OK;
+        } catch (JSONException e) {
+            return SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        }
+    }
+
+    private static Result getFresh(String location) {
+        Result result = sResults.get(location);
+        if (result != null && !result.isFresh()) {
+            sResults.remove(location);
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if there is a usable forecast for location waiting to be committed.
+     */
+    public static boolean hasForecast(String location) {
+        Result result = getFresh(location);
+        return result != null && result.status == SunshineSyncAdapter.LOCATION_STATUS_OK;
+    }
+
+    private static boolean isInFlight(String location) {
+        InFlight inFlight = sInFlight;
+        return inFlight != null && inFlight.location.equals(location) && !inFlight.future.isDone();
+    }
+
+    /**
+     * Hands over the prefetched forecast for location, if there is a usable one, waiting for
+     * the prefetch if it is still downloading.  Each forecast is only handed over once.  If
+     * the calling thread is interrupted while waiting it gets null, with the interrupt left
+     * set.  Must not be called on the prefetch executor.
+     */
+    static String take(String location) {
+        InFlight inFlight = sInFlight;
+        if (inFlight != null && inFlight.location.equals(location)) {
+            try {
+                inFlight.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                Log.w(LOG_TAG, "Prefetch for " + location + " failed", e.getCause());
+            }
+        }
+        if (!hasForecast(location)) {
+            return null;
+        }
+        Result result = sResults.remove(location);
+        return result == null ? null : result.forecastJson;
+    }
+
+    /**
+     * Commits the prefetched forecast for location on a background thread, once any prefetch
+     * still downloading it has finished.  Only the database is written; the forecast is kept
+     * for the sync, which updates everything else.  Returns false if there is no forecast for
+     * location, prefetched or on its way.
+     */
+    static boolean commitPrefetched(Context context, final String location) {
+        if (!hasForecast(location) && !isInFlight(location)) {
+            return false;
+        }
+        final Context appContext = context.getApplicationContext();
+        // Queued behind the prefetch, as the executor runs one task at a time
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Result result = getFresh(location);
+                if (result == null || result.status != SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                    return;
+                }
+                long startMillis = SystemClock.elapsedRealtime();
+                ForecastCommitter committer = new ForecastCommitter(appContext, new SyncTrace(),
+                        new SyncResult(), ForecastCommitter.NOT_CANCELABLE);
+                try {
+                    committer.commit(result.forecastJson, location);
+                } catch (SunshineSyncAdapter.SyncCanceledException e) {
+                    Log.d(LOG_TAG, "Prefetched forecast for " + location + " not committed "
+                            + e.checkpoint);
+                    return;
+                }
+                Log.d(LOG_TAG, "Committed prefetched forecast for " + location + " in "
+                        + (SystemClock.elapsedRealtime() - startMillis) + "ms");
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Starts the time-to-first-forecast clock for a new location.  Call on the main thread.
+     */
+    public static void onLocationChanged(String location) {
+        sChangedLocation = location;
+        sChangedAtMillis = SystemClock.elapsedRealtime();
+        sChangePrefetched = hasForecast(location);
+    }
+
+    /**
+     * Stops the clock if this is the first forecast shown since the location changed to
+     * location.  Call on the main thread.
+     */
+    public static void onForecastShown(String location) {
+        if (sChangedLocation == null || !sChangedLocation.equals(location)) {
+            return;
+        }
+        sLastTimeToForecastMillis = SystemClock.elapsedRealtime() - sChangedAtMillis;
+        Log.d(LOG_TAG, "Time to first forecast for " + location + ": " + sLastTimeToForecastMillis
+                + "ms (" + (sChangePrefetched ? "prefetched" : "synced") + ")");
+        sChangedLocation = null;
+    }
+
+    /**
+     * How long the last location change took to show a forecast, or -1 if none has yet.
+     */
+    public static long getLastTimeToForecastMillis() {
+        return sLastTimeToForecastMillis;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Parses OpenWeatherMap's three hour forecast into the ContentValues the hourly table takes,
+ * one per forecast.
+ */
+class HourlyForecastParser {
+
+    // Each forecast is an element of the "list" array, with the time in seconds since the epoch
+    private static final String OWM_LIST = "list";
+    private static final String OWM_TIME = "dt";
+
+    // Temperature, pressure and humidity are children of the "main" object
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * Returns the forecasts in the response for the location setting, in the order they came.
+     * An error response has none.
+     */
+    static ContentValues[] parse(String hourlyJsonStr, String locationSetting)
+            throws JSONException {
+        JSONObject hourlyJson = new JSONObject(hourlyJsonStr);
+        if (hourlyJson.has(OWM_MESSAGE_CODE)
+                && hourlyJson.getInt(OWM_MESSAGE_CODE) != HttpURLConnection.HTTP_OK) {
+            return new ContentValues[0];
+        }
+
+        JSONArray hourlyArray = hourlyJson.getJSONArray(OWM_LIST);
+        ContentValues[] hourly = new ContentValues[hourlyArray.length()];
+        for (int i = 0; i < hourlyArray.length(); i++) {
+            JSONObject forecast = hourlyArray.getJSONObject(i);
+            JSONObject main = forecast.getJSONObject(OWM_MAIN);
+            // Some forecasts leave the wind out altogether
+            JSONObject wind = forecast.optJSONObject(OWM_WIND);
+            // The weather array is 1 element long
+            JSONObject weatherObject = forecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            ContentValues hourlyValues = new ContentValues();
+            hourlyValues.put(HourlyEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            hourlyValues.put(HourlyEntry.COLUMN_TIME, forecast.getLong(OWM_TIME) * 1000);
+            hourlyValues.put(HourlyEntry.COLUMN_WEATHER_ID, weatherObject.getInt(OWM_WEATHER_ID));
+            hourlyValues.put(HourlyEntry.COLUMN_TEMP, main.getDouble(OWM_TEMPERATURE));
+            hourlyValues.put(HourlyEntry.COLUMN_HUMIDITY, main.getInt(OWM_HUMIDITY));
+            hourlyValues.put(HourlyEntry.COLUMN_PRESSURE, main.getDouble(OWM_PRESSURE));
+            hourlyValues.put(HourlyEntry.COLUMN_WIND_SPEED,
+                    wind == null ? 0 : wind.optDouble(OWM_WINDSPEED, 0));
+            hourlyValues.put(HourlyEntry.COLUMN_DEGREES,
+                    wind == null ? 0 : wind.optDouble(OWM_WIND_DIRECTION, 0));
+            hourly[i] = hourlyValues;
+        }
+        return hourly;
+    }
+}
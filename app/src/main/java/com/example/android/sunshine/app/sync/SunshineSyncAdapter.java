@@ -2,13 +2,11 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
@@ -16,9 +14,7 @@ import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -26,14 +22,14 @@ import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WeatherArtCache;
+import com.example.android.sunshine.app.data.ForecastRecord;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -44,20 +40,21 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -69,20 +66,22 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
+    // Days of the forecast sent to the watch
+    private static final int WEAR_DAYS = 7;
 
+    // How long the sync waits on each consumer of new data before giving up on it
+    private static final long UPDATE_WIDGETS_TIMEOUT_MILLIS = 5 * 1000;
+    private static final long UPDATE_MUZEI_TIMEOUT_MILLIS = 5 * 1000;
+    private static final long NOTIFY_WEATHER_TIMEOUT_MILLIS = 10 * 1000;
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
+    // Runs the consumers of a finished sync in parallel.  One thread per consumer, and the
+    // threads go away when no sync has run for a while.
+    private static final ThreadPoolExecutor sFanOutExecutor = new ThreadPoolExecutor(
+            3, 3, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
 
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    static {
+        sFanOutExecutor.allowCoreThreadTimeOut(true);
+    }
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -96,6 +95,54 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     private GoogleApiClient client;
 
+    // Trace and result of the sync currently running on this adapter, only touched from the
+    // sync thread
+    private SyncTrace mTrace;
+    private SyncResult mSyncResult;
+    private ForecastCommitter mCommitter;
+
+    // Set by onSyncCanceled, from whichever thread the framework cancels on.  The download is
+    // kept so a cancel can also break it while it is blocked reading.
+    private volatile boolean mCanceled;
+    private volatile ForecastHttpClient.Call mDownload;
+    // Where the last canceled sync noticed it had been canceled, for tests
+    private volatile String mCanceledCheckpoint;
+
+    // Bounds on the forecast download.  A sync gets a minute in total, after which the
+    // framework's own backoff takes over from the client's retries.
+    private static final int DOWNLOAD_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int DOWNLOAD_READ_TIMEOUT_MILLIS = 20 * 1000;
+    private static final long DOWNLOAD_DEADLINE_MILLIS = 60 * 1000;
+    private static final int DOWNLOAD_MAX_ATTEMPTS = 3;
+    private static final long DOWNLOAD_BASE_BACKOFF_MILLIS = 1000;
+
+    // Shared by every sync so consecutive syncs can reuse a kept alive connection
+    private static final ForecastHttpClient sHttpClient = new ForecastHttpClient(
+            DOWNLOAD_CONNECT_TIMEOUT_MILLIS, DOWNLOAD_READ_TIMEOUT_MILLIS, DOWNLOAD_DEADLINE_MILLIS,
+            DOWNLOAD_MAX_ATTEMPTS, DOWNLOAD_BASE_BACKOFF_MILLIS);
+
+    private static final String OWM_FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    private static final String OWM_HOURLY_FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast?";
+
+    // Where forecasts are downloaded from.  Tests point this at a local server.
+    private static String sForecastBaseUrl = OWM_FORECAST_BASE_URL;
+    private static String sHourlyForecastBaseUrl = OWM_HOURLY_FORECAST_BASE_URL;
+
+    /**
+     * Thrown from the checkpoints of a sync which has been canceled, to unwind it before it
+     * writes anything.
+     */
+    static class SyncCanceledException extends Exception {
+        final String checkpoint;
+
+        SyncCanceledException(String checkpoint) {
+            super("Sync canceled " + checkpoint);
+            this.checkpoint = checkpoint;
+        }
+    }
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
 
@@ -105,285 +152,248 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
+    /**
+     * Called by the framework when the running sync is canceled, e.g. because a newer one was
+     * requested.  The default implementation interrupts the sync thread, which doesn't stop a
+     * blocking read, so the download is canceled as well.  Everything up to the commit checks
+     * for cancellation, and the commit itself is a single transaction, so a canceled sync
+     * either writes the whole forecast or nothing.
+     */
+    @Override
+    public void onSyncCanceled() {
+        mCanceled = true;
+        ForecastHttpClient.Call download = mDownload;
+        if (download != null) {
+            download.cancel();
+        }
+        super.onSyncCanceled();
+    }
+
+    /**
+     * Where the last sync on this adapter stopped after being canceled, or null if it wasn't.
+     */
+    String getCanceledCheckpoint() {
+        return mCanceledCheckpoint;
+    }
+
+    private void throwIfCanceled(String checkpoint) throws SyncCanceledException {
+        if (mCanceled || Thread.currentThread().isInterrupted()) {
+            throw new SyncCanceledException(checkpoint);
+        }
+    }
+
+    private final ForecastCommitter.Checkpoints mCheckpoints = new ForecastCommitter.Checkpoints() {
+        @Override
+        public void throwIfCanceled(String checkpoint) throws SyncCanceledException {
+            SunshineSyncAdapter.this.throwIfCanceled(checkpoint);
+        }
+    };
+
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
+        mTrace = new SyncTrace();
+        mSyncResult = syncResult;
+        mCommitter = new ForecastCommitter(getContext(), mTrace, syncResult, mCheckpoints);
+        mCanceled = false;
+        mCanceledCheckpoint = null;
         String locationQuery = Utility.getPreferredLocation(getContext());
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
         // Will contain the raw JSON response as a string.
         String forecastJsonStr = null;
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            // The settings screen may already have fetched the forecast while the user was
+            // typing the location in
+            forecastJsonStr = ForecastPrefetcher.take(locationQuery);
+            if (forecastJsonStr != null) {
+                Log.d(LOG_TAG, "Using prefetched forecast for " + locationQuery);
+            } else {
+                // Download the forecast from OpenWeatherMap, the client takes care of timeouts
+                // and retries
+                ForecastHttpClient.Call download = sHttpClient.newCall(buildForecastUrl(locationQuery));
+                mDownload = download;
+                throwIfCanceled("before connecting");
+                try {
+                    forecastJsonStr = download.execute();
+                } finally {
+                    mTrace.addStageNanos(SyncTrace.STAGE_CONNECT, download.getConnectNanos());
+                    mTrace.addStageNanos(SyncTrace.STAGE_DOWNLOAD, download.getDownloadNanos());
+                    if (download.getAttempts() > 1) {
+                        Log.d(LOG_TAG, "Forecast download took " + download.getAttempts() + " attempts");
+                    }
+                }
             }
+            // The response is all but entirely ASCII, so characters are a good measure of bytes
+            mTrace.addBytes(forecastJsonStr.length());
 
-            if (buffer.length() == 0) {
+            if (forecastJsonStr.length() == 0) {
                 // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+                mCommitter.reportLocationStatus(LOCATION_STATUS_SERVER_DOWN);
                 return;
             }
-            forecastJsonStr = buffer.toString();
+            throwIfCanceled("before parsing");
             getWeatherDataFromJson(forecastJsonStr, locationQuery);
+        } catch (SyncCanceledException e) {
+            // Nothing has been written, and whatever canceled us will tell the user what's
+            // going on, so the location status is left alone
+            mCanceledCheckpoint = e.checkpoint;
+            Log.d(LOG_TAG, e.getMessage());
         } catch (IOException e) {
+            if (mCanceled) {
+                // The read was broken by onSyncCanceled, not by the server
+                mCanceledCheckpoint = "while downloading";
+                Log.d(LOG_TAG, "Sync canceled while downloading");
+                return;
+            }
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            mCommitter.reportLocationStatus(LOCATION_STATUS_SERVER_DOWN);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+            mDownload = null;
+            mTrace.finish();
+            recordSyncHistory();
         }
         return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Builds the OpenWeatherMap query for a location setting.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+    static URL buildForecastUrl(String locationQuery) throws MalformedURLException {
+        String format = "json";
+        String units = "metric";
+        int numDays = 14;
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String FORECAST_BASE_URL = sForecastBaseUrl;
+        final String QUERY_PARAM = "q";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        return new URL(builtUri.toString());
+    }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    /**
+     * Builds the OpenWeatherMap query for the three hour forecast of a location setting, which
+     * covers the next five days.
+     */
+    static URL buildHourlyForecastUrl(String locationQuery) throws MalformedURLException {
+        Uri builtUri = Uri.parse(sHourlyForecastBaseUrl).buildUpon()
+                .appendQueryParameter("q", locationQuery)
+                .appendQueryParameter("mode", "json")
+                .appendQueryParameter("units", "metric")
+                .appendQueryParameter("APPID", BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        return new URL(builtUri.toString());
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * Persists a summary of the sync which just finished, so sync cost and failures can be
+     * looked at after the fact.
+     */
+    private void recordSyncHistory() {
+        ContentValues historyValues = new ContentValues();
+        historyValues.put(WeatherContract.SyncHistoryEntry.COLUMN_TIMESTAMP, System.currentTimeMillis());
+        historyValues.put(WeatherContract.SyncHistoryEntry.COLUMN_OUTCOME, mTrace.getLocationStatus());
+        historyValues.put(WeatherContract.SyncHistoryEntry.COLUMN_LATENCY, mTrace.getTotalMillis());
+        historyValues.put(WeatherContract.SyncHistoryEntry.COLUMN_ROWS,
+                mSyncResult.stats.numInserts + mSyncResult.stats.numDeletes);
+        historyValues.put(WeatherContract.SyncHistoryEntry.COLUMN_BYTES, mTrace.getBytes());
+        getContext().getContentResolver().insert(
+                WeatherContract.SyncHistoryEntry.CONTENT_URI, historyValues);
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Commits the forecast and then tells everything which shows it, the watch included, and
+     * brings the three hour forecast up to date.
+     */
+    private void getWeatherDataFromJson(String forecastJsonStr,
+                                        String locationSetting)
+            throws SyncCanceledException {
+        ContentValues[] forecast = mCommitter.commit(forecastJsonStr, locationSetting);
+        if (forecast == null || forecast.length == 0) {
+            return;
+        }
+        // The watch keeps the next few days, so it can move on to tomorrow by itself
+        mTrace.begin(SyncTrace.STAGE_UPDATE_WEAR);
+        updateWear(forecast);
+        mTrace.end();
+
+        fanOut(forecast);
+        syncHourly(locationSetting);
+        Log.d(LOG_TAG, "Sync Complete. " + forecast.length + " Inserted");
+    }
 
+    /**
+     * Downloads the three hour forecast and merges it into the hourly table.  The daily
+     * forecast is already stored by now, so a failure here is only logged and the sync still
+     * counts as a success.
+     */
+    private void syncHourly(String locationSetting) {
+        if (mCanceled) {
+            return;
+        }
+        mTrace.begin(SyncTrace.STAGE_HOURLY);
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
+            ForecastHttpClient.Call download =
+                    sHttpClient.newCall(buildHourlyForecastUrl(locationSetting));
+            mDownload = download;
+            // A cancel which landed before the download was published couldn't cancel it
+            if (mCanceled) {
+                return;
             }
-
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-
-                //I really hate to do this logic here, but it's the best place for it
-                //Update wear with current date weather (index 0)
-                if (i == 0){
-                    updateWear(high,low,weatherId);
-                }
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
+            String hourlyJsonStr = download.execute();
+            mTrace.addBytes(hourlyJsonStr.length());
+            ContentValues[] hourly = HourlyForecastParser.parse(hourlyJsonStr, locationSetting);
+            if (hourly.length > 0 && !mCanceled) {
+                getContext().getContentResolver().bulkInsert(
+                        WeatherContract.HourlyEntry.CONTENT_URI, hourly);
             }
-
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+        } catch (IOException | JSONException e) {
+            if (!mCanceled) {
+                Log.w(LOG_TAG, "Couldn't sync the hourly forecast", e);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        } finally {
+            mDownload = null;
+            mTrace.end();
         }
     }
 
-    private void updateWear(double high, double low, int weatherId) {
+    private void updateWear(ContentValues[] forecast) {
         if (client != null){
 
             client.connect();
-            Log.d(LOG_TAG, "Sending from phone High:" + high + ",\n Low:" + low + ",\n  weatherId: " + weatherId);
+            int days = Math.min(forecast.length, WEAR_DAYS);
+            long[] dates = new long[days];
+            ArrayList<Integer> weatherIds = new ArrayList<Integer>(days);
+            String[] highs = new String[days];
+            String[] lows = new String[days];
+            for (int i = 0; i < days; i++) {
+                dates[i] = forecast[i].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                weatherIds.add(forecast[i].getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+                //Use formatting from Utility class to easily format the temp from the user prefs
+                highs[i] = Utility.formatTemperature(getContext(),
+                        forecast[i].getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+                lows[i] = Utility.formatTemperature(getContext(),
+                        forecast[i].getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+            }
+            Log.d(LOG_TAG, "Sending from phone " + days + " days, today High:" + highs[0]
+                    + ",\n Low:" + lows[0] + ",\n  weatherId: " + weatherIds.get(0));
 
 
             //Kudos to my reviewer for helping me with this code.
@@ -391,11 +401,16 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             //Adding time stamp so new data is always synced
             putDataMapReq.getDataMap().putLong("Time",System.currentTimeMillis());
 
-            putDataMapReq.getDataMap().putInt("weatherId", weatherId);
+            // Today on its own, as watch faces before the multi day payload expect it
+            putDataMapReq.getDataMap().putInt("weatherId", weatherIds.get(0));
+            putDataMapReq.getDataMap().putString("high", highs[0]);
+            putDataMapReq.getDataMap().putString("low", lows[0]);
 
-            //Use formatting from Utility class to easily format the temp from the user prefs
-            putDataMapReq.getDataMap().putString("high", Utility.formatTemperature(getContext(),high));
-            putDataMapReq.getDataMap().putString("low", Utility.formatTemperature(getContext(),low));
+            // Each day's start date, weather id and formatted temperatures
+            putDataMapReq.getDataMap().putLongArray("dates", dates);
+            putDataMapReq.getDataMap().putIntegerArrayList("weatherIds", weatherIds);
+            putDataMapReq.getDataMap().putStringArray("highs", highs);
+            putDataMapReq.getDataMap().putStringArray("lows", lows);
 
             //Setting as urgent so there is no delay
             PutDataRequest putDataReq = putDataMapReq.asPutDataRequest().setUrgent();
@@ -410,6 +425,77 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
+    /**
+     * Tells everything which shows the forecast that there is new data.  The consumers run in
+     * parallel, and the sync only waits a bounded time for each, so a slow art download for the
+     * notification can't hold the sync (and its wakelock) open.
+     */
+    private void fanOut(final ContentValues[] forecast) {
+        mTrace.begin(SyncTrace.STAGE_FAN_OUT);
+        long startNanos = System.nanoTime();
+
+        Future<Long> widgets = sFanOutExecutor.submit(new TimedConsumer() {
+            @Override
+            void consume() {
+                updateWidgets();
+            }
+        });
+        Future<Long> muzei = sFanOutExecutor.submit(new TimedConsumer() {
+            @Override
+            void consume() {
+                updateMuzei();
+            }
+        });
+        Future<Long> notification = sFanOutExecutor.submit(new TimedConsumer() {
+            @Override
+            void consume() {
+                warmWeatherArt(forecast);
+                notifyWeather();
+            }
+        });
+
+        awaitConsumer(widgets, SyncTrace.STAGE_UPDATE_WIDGETS, UPDATE_WIDGETS_TIMEOUT_MILLIS, startNanos);
+        awaitConsumer(muzei, SyncTrace.STAGE_UPDATE_MUZEI, UPDATE_MUZEI_TIMEOUT_MILLIS, startNanos);
+        awaitConsumer(notification, SyncTrace.STAGE_NOTIFY_WEATHER, NOTIFY_WEATHER_TIMEOUT_MILLIS, startNanos);
+        mTrace.end();
+    }
+
+    /**
+     * Waits for a consumer until timeoutMillis after the fan out started, and records how long
+     * it ran.  A consumer which runs out of time is interrupted; anything it blocks on in Glide
+     * gives up and falls back to local art.
+     */
+    private void awaitConsumer(Future<Long> consumer, int stage, long timeoutMillis, long startNanos) {
+        long remainingMillis = timeoutMillis -
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        try {
+            mTrace.addStageNanos(stage, consumer.get(Math.max(0, remainingMillis), TimeUnit.MILLISECONDS));
+        } catch (TimeoutException e) {
+            consumer.cancel(true);
+            mTrace.addStageNanos(stage, System.nanoTime() - startNanos);
+            Log.w(LOG_TAG, "Sync consumer for stage " + stage + " timed out after " + timeoutMillis + "ms");
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Sync consumer for stage " + stage + " failed", e.getCause());
+        } catch (InterruptedException e) {
+            consumer.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A fan out consumer which reports how long it ran for, in nanoseconds.
+     */
+    private static abstract class TimedConsumer implements Callable<Long> {
+        @Override
+        public Long call() {
+            long startNanos = System.nanoTime();
+            consume();
+            return System.nanoTime() - startNanos;
+        }
+
+        abstract void consume();
+    }
+
     private void updateWidgets() {
         Context context = getContext();
         // Setting the package ensures that only components in our app will receive the broadcast
@@ -428,6 +514,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
+    private void warmWeatherArt(ContentValues[] forecast) {
+        int[] weatherIds = new int[forecast.length];
+        for (int i = 0; i < forecast.length; i++) {
+            weatherIds[i] = forecast[i].getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        }
+        WeatherArtCache.getInstance(getContext()).warm(weatherIds);
+    }
+
     private void notifyWeather() {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
@@ -445,46 +539,21 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
                 String locationQuery = Utility.getPreferredLocation(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                // Read today's forecast straight from the provider, no Cursor needed
+                ForecastRecord today = ForecastRecord.getForDate(context, locationQuery,
+                        System.currentTimeMillis());
 
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today != null) {
+                    int weatherId = today.weatherId;
+                    double high = today.high;
+                    double low = today.low;
+                    String desc = today.shortDesc;
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
+
+                    // Retrieve the large icon, usually already decoded when the sync warmed the cache
+                    Bitmap largeIcon = WeatherArtCache.getInstance(context).getNotificationArt(weatherId);
                     String title = context.getString(R.string.app_name);
 
                     // Define the text of the forecast.
@@ -530,61 +599,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
-    }
-
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -616,6 +634,51 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 context.getString(R.string.content_authority), bundle);
     }
 
+    /**
+     * Brings the forecast up to date after the user changed the location.  Whatever is
+     * syncing for the old location is canceled.  If the forecast for the new location was
+     * prefetched while it was being typed it is committed straight away, and the immediate
+     * sync which follows picks up the same response instead of downloading it again.
+     * @param context The context used to access the account service
+     */
+    public static void syncForNewLocation(Context context) {
+        String location = Utility.getPreferredLocation(context);
+        cancelSync(context);
+        ForecastPrefetcher.commitPrefetched(context, location);
+        syncImmediately(context);
+    }
+
+    /**
+     * Cancels the running sync, if any, along with any pending ones.  For when whatever a
+     * sync would download is about to be out of date, e.g. the location has changed.
+     * @param context The context used to access the account service
+     */
+    public static void cancelSync(Context context) {
+        ContentResolver.cancelSync(getSyncAccount(context), context.getString(R.string.content_authority));
+    }
+
+    /**
+     * Points the sync at a different forecast server, for tests.
+     */
+    static void setForecastBaseUrl(String forecastBaseUrl) {
+        sForecastBaseUrl = forecastBaseUrl;
+    }
+
+    /**
+     * Points the sync at a different three hour forecast server, for tests.
+     */
+    static void setHourlyForecastBaseUrl(String hourlyForecastBaseUrl) {
+        sHourlyForecastBaseUrl = hourlyForecastBaseUrl;
+    }
+
+    /**
+     * Points the sync back at OpenWeatherMap, for tests which changed the servers.
+     */
+    static void resetForecastBaseUrls() {
+        sForecastBaseUrl = OWM_FORECAST_BASE_URL;
+        sHourlyForecastBaseUrl = OWM_HOURLY_FORECAST_BASE_URL;
+    }
+
     /**
      * Helper method to get the fake account to be used with SyncAdapter, or make a new one
      * if the fake account doesn't exist yet.  If we make a new account, we call the
@@ -682,7 +745,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @param c Context to get the PreferenceManager from.
      * @param locationStatus The IntDef value to set
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
+    static void setLocationStatus(Context c, @LocationStatus int locationStatus){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
         spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
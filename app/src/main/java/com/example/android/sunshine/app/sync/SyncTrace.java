@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncTraceEntry;
+
+/**
+ * Timing trace of a single sync run.  Each stage of the pipeline is timed separately, so a
+ * slow sync can be pinned on the network, the parser, the database or one of the consumers
+ * which are told about the new data.  The most recent traces are kept in memory and exposed
+ * through {@link SyncTraceEntry#CONTENT_URI} in debug builds.
+ *
+ * A trace belongs to the sync thread which created it and is not safe to share until it has
+ * been finished.
+ */
+public class SyncTrace {
+    private static final String LOG_TAG = SyncTrace.class.getSimpleName();
+
+    // Stages, these indices must match STAGE_COLUMNS
+    public static final int STAGE_CONNECT = 0;
+    public static final int STAGE_DOWNLOAD = 1;
+    public static final int STAGE_PARSE = 2;
+    public static final int STAGE_ADD_LOCATION = 3;
+    public static final int STAGE_BULK_INSERT = 4;
+    public static final int STAGE_DELETE_OLD = 5;
+    public static final int STAGE_UPDATE_WIDGETS = 6;
+    public static final int STAGE_UPDATE_MUZEI = 7;
+    public static final int STAGE_NOTIFY_WEATHER = 8;
+    public static final int STAGE_UPDATE_WEAR = 9;
+    public static final int STAGE_FAN_OUT = 10;
+    public static final int STAGE_COMMIT = 11;
+    public static final int STAGE_WRITE_SNAPSHOT = 12;
+    public static final int STAGE_HOURLY = 13;
+
+    private static final String[] STAGE_COLUMNS = {
+            SyncTraceEntry.COLUMN_CONNECT,
+            SyncTraceEntry.COLUMN_DOWNLOAD,
+            SyncTraceEntry.COLUMN_PARSE,
+            SyncTraceEntry.COLUMN_ADD_LOCATION,
+            SyncTraceEntry.COLUMN_BULK_INSERT,
+            SyncTraceEntry.COLUMN_DELETE_OLD,
+            SyncTraceEntry.COLUMN_UPDATE_WIDGETS,
+            SyncTraceEntry.COLUMN_UPDATE_MUZEI,
+            SyncTraceEntry.COLUMN_NOTIFY_WEATHER,
+            SyncTraceEntry.COLUMN_UPDATE_WEAR,
+            SyncTraceEntry.COLUMN_FAN_OUT,
+            SyncTraceEntry.COLUMN_COMMIT,
+            SyncTraceEntry.COLUMN_WRITE_SNAPSHOT,
+            SyncTraceEntry.COLUMN_HOURLY
+    };
+
+    // Stages only nest a couple of levels deep (e.g. addLocation inside parse)
+    private static final int MAX_NESTING = 4;
+
+    // Number of finished traces kept around
+    private static final int HISTORY_SIZE = 16;
+    private static final SyncTrace[] sHistory = new SyncTrace[HISTORY_SIZE];
+    private static int sHistoryCount = 0;
+
+    private final long mStartTimeMillis;
+    private final long mStartNanos;
+    private final long[] mStageNanos = new long[STAGE_COLUMNS.length];
+
+    private final int[] mOpenStages = new int[MAX_NESTING];
+    private int mOpenCount = 0;
+    private long mSliceStartNanos;
+
+    private long mTotalNanos;
+    private long mBytes;
+    private int mRows;
+    private int mLocationStatus = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+
+    public SyncTrace() {
+        mStartTimeMillis = System.currentTimeMillis();
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Starts timing a stage.  If another stage is running it is paused until this one ends, so
+     * nested stages are not counted twice.
+     */
+    public void begin(int stage) {
+        if (mOpenCount == MAX_NESTING) {
+            throw new IllegalStateException("Sync trace stages nested too deeply");
+        }
+        long now = System.nanoTime();
+        chargeOpenStage(now);
+        mOpenStages[mOpenCount++] = stage;
+    }
+
+    /**
+     * Stops timing the most recently started stage and resumes the one it interrupted.
+     */
+    public void end() {
+        if (mOpenCount == 0) {
+            return;
+        }
+        chargeOpenStage(System.nanoTime());
+        mOpenCount--;
+    }
+
+    private void chargeOpenStage(long now) {
+        if (mOpenCount > 0) {
+            mStageNanos[mOpenStages[mOpenCount - 1]] += now - mSliceStartNanos;
+        }
+        mSliceStartNanos = now;
+    }
+
+    /**
+     * Adds time measured elsewhere to a stage, for work which ran on another thread.
+     */
+    public void addStageNanos(int stage, long nanos) {
+        mStageNanos[stage] += nanos;
+    }
+
+    public void addBytes(long bytes) {
+        mBytes += bytes;
+    }
+
+    public void addRows(int rows) {
+        mRows += rows;
+    }
+
+    public void setLocationStatus(@SunshineSyncAdapter.LocationStatus int locationStatus) {
+        mLocationStatus = locationStatus;
+    }
+
+    public long getStageMillis(int stage) {
+        return mStageNanos[stage] / 1000000;
+    }
+
+    public long getTotalMillis() {
+        return mTotalNanos / 1000000;
+    }
+
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    public int getLocationStatus() {
+        return mLocationStatus;
+    }
+
+    /**
+     * Closes any stages left open by an early return or exception, logs the trace and adds it
+     * to the in memory history.
+     */
+    public void finish() {
+        while (mOpenCount > 0) {
+            end();
+        }
+        mTotalNanos = System.nanoTime() - mStartNanos;
+        Log.d(LOG_TAG, toString());
+        synchronized (sHistory) {
+            sHistory[sHistoryCount % HISTORY_SIZE] = this;
+            sHistoryCount++;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Sync took ")
+                .append(getTotalMillis()).append("ms (");
+        for (int stage = 0; stage < STAGE_COLUMNS.length; stage++) {
+            builder.append(STAGE_COLUMNS[stage]).append('=')
+                    .append(mStageNanos[stage] / 1000).append("us ");
+        }
+        return builder.append(") ").append(mBytes).append(" bytes, ")
+                .append(mRows).append(" rows, status ").append(mLocationStatus).toString();
+    }
+
+    /**
+     * Returns the recent traces, newest first, with stage durations in microseconds.
+     */
+    public static Cursor getHistoryCursor() {
+        String[] columns = new String[5 + STAGE_COLUMNS.length];
+        columns[0] = SyncTraceEntry.COLUMN_START_TIME;
+        columns[1] = SyncTraceEntry.COLUMN_TOTAL;
+        columns[2] = SyncTraceEntry.COLUMN_BYTES;
+        columns[3] = SyncTraceEntry.COLUMN_ROWS;
+        columns[4] = SyncTraceEntry.COLUMN_LOCATION_STATUS;
+        System.arraycopy(STAGE_COLUMNS, 0, columns, 5, STAGE_COLUMNS.length);
+
+        MatrixCursor cursor = new MatrixCursor(columns, HISTORY_SIZE);
+        synchronized (sHistory) {
+            int available = Math.min(sHistoryCount, HISTORY_SIZE);
+            for (int i = 1; i <= available; i++) {
+                SyncTrace trace = sHistory[(sHistoryCount - i) % HISTORY_SIZE];
+                Object[] row = new Object[columns.length];
+                row[0] = trace.mStartTimeMillis;
+                row[1] = trace.mTotalNanos / 1000;
+                row[2] = trace.mBytes;
+                row[3] = trace.mRows;
+                row[4] = trace.mLocationStatus;
+                for (int stage = 0; stage < STAGE_COLUMNS.length; stage++) {
+                    row[5 + stage] = trace.mStageNanos[stage] / 1000;
+                }
+                cursor.addRow(row);
+            }
+        }
+        return cursor;
+    }
+}
@@ -7,19 +7,19 @@ import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Parcel;
 import android.util.Log;
+import android.util.SparseArray;
 import android.widget.AdapterView;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WeatherArtCache;
 import com.example.android.sunshine.app.data.WeatherContract;
 
-import java.util.concurrent.ExecutionException;
-
 /**
  * RemoteViewsService controlling the data being shown in the scrollable weather detail widget
  */
@@ -46,6 +46,10 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new RemoteViewsFactory() {
             private Cursor data = null;
+            // Weather art decoded at the widget icon size, keyed by weather condition id
+            private final SparseArray<Bitmap> artByCondition = new SparseArray<Bitmap>();
+            // The art downloads onDataSetChanged is waiting on, if any
+            private volatile WeatherArtCache.Request prefetchRequest;
 
             @Override
             public void onCreate() {
@@ -71,6 +75,60 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                         null,
                         WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
                 Binder.restoreCallingIdentity(identityToken);
+                prefetchWeatherArt();
+            }
+
+            /**
+             * Loads the art for every distinct weather condition in the data set, so that
+             * getViewAt never has to block on the network.  The bitmaps come from the shared
+             * WeatherArtCache, so conditions already decoded for this size are not fetched again.
+             */
+            private void prefetchWeatherArt() {
+                releaseWeatherArt();
+                if (data == null || Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this)) {
+                    return;
+                }
+                int iconSize = getResources().getDimensionPixelSize(R.dimen.list_icon);
+                int[] weatherIds = new int[data.getCount()];
+                for (int position = 0; data.moveToPosition(position); position++) {
+                    weatherIds[position] = data.getInt(INDEX_WEATHER_CONDITION_ID);
+                }
+                SparseArray<Bitmap> art;
+                WeatherArtCache.Request request = new WeatherArtCache.Request();
+                prefetchRequest = request;
+                try {
+                    art = WeatherArtCache.getInstance(DetailWidgetRemoteViewsService.this)
+                            .getArt(weatherIds, iconSize, iconSize, request);
+                } finally {
+                    prefetchRequest = null;
+                }
+                if (request.isCanceled()) {
+                    return;
+                }
+                // Keep our own references, so that rows stay cheap even if the cache evicts them
+                for (int i = 0; i < art.size(); i++) {
+                    artByCondition.put(art.keyAt(i), art.valueAt(i));
+                }
+                Log.d(LOG_TAG, "Prefetched " + artByCondition.size() + " weather art bitmaps at "
+                        + iconSize + "px for " + weatherIds.length + " rows");
+            }
+
+            private void releaseWeatherArt() {
+                // The bitmaps may still be referenced by RemoteViews in flight, so we only drop
+                // our references and let them be collected
+                artByCondition.clear();
+            }
+
+            /**
+             * Cancels the downloads a prefetch is still waiting on, instead of finishing them
+             * for a factory that is gone.  Canceling a prefetch which has just finished is
+             * harmless, so this can race with onDataSetChanged.
+             */
+            private void cancelPrefetch() {
+                WeatherArtCache.Request request = prefetchRequest;
+                if (request != null) {
+                    request.cancel();
+                }
             }
 
             @Override
@@ -79,6 +137,8 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                     data.close();
                     data = null;
                 }
+                cancelPrefetch();
+                releaseWeatherArt();
             }
 
             @Override
@@ -96,20 +156,7 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                         R.layout.widget_detail_list_item);
                 int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
                 int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
-                Bitmap weatherArtImage = null;
-                if ( !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this) ) {
-                    String weatherArtResourceUrl = Utility.getArtUrlForWeatherCondition(
-                            DetailWidgetRemoteViewsService.this, weatherId);
-                    try {
-                        weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
-                                .load(weatherArtResourceUrl)
-                                .asBitmap()
-                                .error(weatherArtResourceId)
-                                .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
-                    }
-                }
+                Bitmap weatherArtImage = artByCondition.get(weatherId);
                 String description = data.getString(INDEX_WEATHER_DESC);
                 long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
                 String formattedDate = Utility.getFriendlyDayString(
@@ -141,9 +188,30 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                         dateInMillis);
                 fillInIntent.setData(weatherUri);
                 views.setOnClickFillInIntent(R.id.widget_list_item, fillInIntent);
+                if (BuildConfig.DEBUG) {
+                    logParcelSize(position, views, weatherArtImage);
+                }
                 return views;
             }
 
+            /**
+             * Logs how many bytes the row takes in the binder transaction to the widget host,
+             * next to the bytes of the bitmap flattened into it.
+             */
+            private void logParcelSize(int position, RemoteViews views, Bitmap weatherArtImage) {
+                Parcel parcel = Parcel.obtain();
+                try {
+                    views.writeToParcel(parcel, 0);
+                    Log.v(LOG_TAG, "Row " + position + " parcels to " + parcel.dataSize()
+                            + " bytes, " + (weatherArtImage == null ? "no bitmap"
+                            : weatherArtImage.getWidth() + "x" + weatherArtImage.getHeight()
+                            + " bitmap of " + weatherArtImage.getRowBytes()
+                            * weatherArtImage.getHeight() + " bytes"));
+                } finally {
+                    parcel.recycle();
+                }
+            }
+
             @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
             private void setRemoteContentDescription(RemoteViews views, String description) {
                 views.setContentDescription(R.id.widget_icon, description);
@@ -21,34 +21,37 @@ import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.util.TypedValue;
 import android.widget.RemoteViews;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.ForecastRecord;
+
+import java.util.Arrays;
 
 /**
  * IntentService which handles updating all Today widgets with the latest data
  */
 public class TodayWidgetIntentService extends IntentService {
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
-    private static final int INDEX_MAX_TEMP = 2;
-    private static final int INDEX_MIN_TEMP = 3;
+    // Number of distinct layouts a Today widget can resolve to (small, default and large)
+    private static final int LAYOUT_BUCKET_COUNT = 3;
+
+    /**
+     * Set when the system asked for the update (e.g. a newly added or resized widget), in which
+     * case we push the views even if the content has not changed since the last push.
+     */
+    static final String EXTRA_FORCE_UPDATE = "force_update";
+
+    // Hash of the content last delivered to each widget id.  This only lives as long as the
+    // process, which is fine since the AppWidgetManager keeps the last views it was given.
+    private static final SparseIntArray sLastContentHashes = new SparseIntArray();
 
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
@@ -63,42 +66,53 @@ public class TodayWidgetIntentService extends IntentService {
 
         // Get today's data from the ContentProvider
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
-            return;
-        }
-        if (!data.moveToFirst()) {
-            data.close();
+        ForecastRecord today = ForecastRecord.getFirstFromDate(this, location,
+                System.currentTimeMillis());
+        if (today == null) {
             return;
         }
 
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
+        int weatherId = today.weatherId;
         int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
-        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
-
-        // Perform this loop procedure for each Today widget
+        String description = today.shortDesc;
+        String formattedMaxTemperature = Utility.formatTemperature(this, today.high);
+        String formattedMinTemperature = Utility.formatTemperature(this, today.low);
+
+        // Widths only need to be resolved once per update, not once per widget
+        int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
+        boolean forceUpdate = intent != null && intent.getBooleanExtra(EXTRA_FORCE_UPDATE, false);
+
+        // Group the widgets by the layout they resolve to, so that we only build one
+        // RemoteViews per layout and push it to all of the widgets sharing it in a single call
+        SparseArray<int[]> widgetsByLayout = new SparseArray<int[]>(LAYOUT_BUCKET_COUNT);
+        SparseIntArray bucketSizes = new SparseIntArray(LAYOUT_BUCKET_COUNT);
         for (int appWidgetId : appWidgetIds) {
-            // Find the correct layout based on the widget's width
-            int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId);
-            int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
-            int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
-            int layoutId;
-            if (widgetWidth >= largeWidth) {
-                layoutId = R.layout.widget_today_large;
-            } else if (widgetWidth >= defaultWidth) {
-                layoutId = R.layout.widget_today;
-            } else {
-                layoutId = R.layout.widget_today_small;
+            int layoutId = getLayoutForWidth(
+                    getWidgetWidth(appWidgetManager, appWidgetId, defaultWidth), defaultWidth, largeWidth);
+            int contentHash = getContentHash(layoutId, weatherArtResourceId, description,
+                    formattedMaxTemperature, formattedMinTemperature);
+            synchronized (sLastContentHashes) {
+                // Skip widgets which are already showing exactly this content
+                if (!forceUpdate && sLastContentHashes.indexOfKey(appWidgetId) >= 0 &&
+                        sLastContentHashes.get(appWidgetId) == contentHash) {
+                    continue;
+                }
+                sLastContentHashes.put(appWidgetId, contentHash);
+            }
+            int[] bucket = widgetsByLayout.get(layoutId);
+            if (bucket == null) {
+                bucket = new int[appWidgetIds.length];
+                widgetsByLayout.put(layoutId, bucket);
             }
+            int bucketSize = bucketSizes.get(layoutId);
+            bucket[bucketSize] = appWidgetId;
+            bucketSizes.put(layoutId, bucketSize + 1);
+        }
+
+        // Perform this procedure once for each layout in use
+        for (int i = 0; i < widgetsByLayout.size(); i++) {
+            int layoutId = widgetsByLayout.keyAt(i);
             RemoteViews views = new RemoteViews(getPackageName(), layoutId);
 
             // Add the data to the RemoteViews
@@ -116,23 +130,59 @@ public class TodayWidgetIntentService extends IntentService {
             PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
             views.setOnClickPendingIntent(R.id.widget, pendingIntent);
 
-            // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+            // Tell the AppWidgetManager to perform an update on all of the widgets in this bucket
+            int[] bucketIds = Arrays.copyOf(widgetsByLayout.valueAt(i), bucketSizes.get(layoutId));
+            appWidgetManager.updateAppWidget(bucketIds, views);
+        }
+    }
+
+    /**
+     * Finds the correct layout based on the widget's width
+     */
+    private static int getLayoutForWidth(int widgetWidth, int defaultWidth, int largeWidth) {
+        if (widgetWidth >= largeWidth) {
+            return R.layout.widget_today_large;
+        } else if (widgetWidth >= defaultWidth) {
+            return R.layout.widget_today;
+        } else {
+            return R.layout.widget_today_small;
+        }
+    }
+
+    /**
+     * Hash of everything that ends up in the RemoteViews, used to tell whether a widget
+     * already shows the content we are about to push
+     */
+    private static int getContentHash(int layoutId, int artResourceId, String description,
+                                      String high, String low) {
+        return Arrays.hashCode(new Object[]{layoutId, artResourceId, description, high, low});
+    }
+
+    /**
+     * Forgets the content delivered to widgets which have been removed from the home screen
+     */
+    static void forgetWidgets(int[] appWidgetIds) {
+        synchronized (sLastContentHashes) {
+            for (int appWidgetId : appWidgetIds) {
+                sLastContentHashes.delete(appWidgetId);
+            }
         }
     }
 
-    private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId) {
+    private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId,
+                               int defaultWidth) {
         // Prior to Jelly Bean, widgets were always their default size
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
-            return getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+            return defaultWidth;
         }
         // For Jelly Bean and higher devices, widgets can be resized - the current size can be
         // retrieved from the newly added App Widget Options
-        return getWidgetWidthFromOptions(appWidgetManager, appWidgetId);
+        return getWidgetWidthFromOptions(appWidgetManager, appWidgetId, defaultWidth);
     }
 
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-    private int getWidgetWidthFromOptions(AppWidgetManager appWidgetManager, int appWidgetId) {
+    private int getWidgetWidthFromOptions(AppWidgetManager appWidgetManager, int appWidgetId,
+                                          int defaultWidth) {
         Bundle options = appWidgetManager.getAppWidgetOptions(appWidgetId);
         if (options.containsKey(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH)) {
             int minWidthDp = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH);
@@ -141,7 +191,7 @@ public class TodayWidgetIntentService extends IntentService {
             return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, minWidthDp,
                     displayMetrics);
         }
-        return  getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        return defaultWidth;
     }
 
     @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
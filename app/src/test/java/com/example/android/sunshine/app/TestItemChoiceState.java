@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.widget.AbsListView;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/*
+    Runs the choice modes against a list of ids standing in for a forecast, which moves under
+    the checked items the way a sync does.
+ */
+public class TestItemChoiceState extends TestCase {
+
+    /*
+        A data set of ids in ascending order which counts how often it is asked for positions.
+        Ids from pagedInUpTo on haven't been paged in, so their positions are unknown.
+     */
+    private static class FakeItemIds implements ItemChoiceState.ItemIds {
+        long[] ids;
+        long pagedInUpTo = Long.MAX_VALUE;
+        int positionLookups;
+
+        FakeItemIds(long... ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position < ids.length ? ids[position] : ItemChoiceState.NO_ID;
+        }
+
+        @Override
+        public int getPositionForItemId(long id) {
+            positionLookups++;
+            if (id >= pagedInUpTo) {
+                return ItemChoiceState.UNKNOWN_POSITION;
+            }
+            int position = Arrays.binarySearch(ids, id);
+            return position < 0 ? ItemChoiceState.NO_POSITION : position;
+        }
+    }
+
+    public void testSingleChoice() {
+        FakeItemIds ids = new FakeItemIds(100, 101, 102, 103, 104);
+        ItemChoiceState state = new ItemChoiceState(ids);
+        state.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+
+        assertEquals(0, state.onClick(1).length);
+        assertTrue(state.isItemChecked(1));
+        assertEquals(1, state.getSelectedItemPosition());
+
+        int[] unchecked = state.onClick(3);
+        assertTrue("Error: Checking another item should uncheck the first",
+                Arrays.equals(new int[]{1}, unchecked));
+        assertFalse(state.isItemChecked(1));
+        assertTrue(state.isItemChecked(3));
+
+        assertEquals("Error: Clicking the checked item again should change nothing",
+                0, state.onClick(3).length);
+        assertTrue(state.isItemChecked(3));
+        assertEquals(1, state.getCheckedCount());
+    }
+
+    public void testMultipleChoice() {
+        FakeItemIds ids = new FakeItemIds(100, 101, 102, 103, 104);
+        ItemChoiceState state = new ItemChoiceState(ids);
+        state.setChoiceMode(AbsListView.CHOICE_MODE_MULTIPLE);
+
+        state.onClick(0);
+        state.onClick(2);
+        state.onClick(4);
+        assertEquals(3, state.getCheckedCount());
+        assertTrue(state.isItemChecked(0));
+        assertFalse(state.isItemChecked(1));
+        assertTrue(state.isItemChecked(4));
+        assertEquals(0, state.getSelectedItemPosition());
+
+        state.onClick(2);
+        assertFalse("Error: A second click should uncheck the item", state.isItemChecked(2));
+        assertEquals(2, state.getCheckedCount());
+    }
+
+    public void testNoChoice() {
+        ItemChoiceState state = new ItemChoiceState(new FakeItemIds(100, 101));
+        state.onClick(0);
+        assertFalse(state.isItemChecked(0));
+        assertEquals(ItemChoiceState.NO_POSITION, state.getSelectedItemPosition());
+    }
+
+    public void testSingleChoiceFollowsDataSetChange() {
+        FakeItemIds ids = new FakeItemIds(100, 101, 102, 103, 104);
+        ItemChoiceState state = new ItemChoiceState(ids);
+        state.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+        state.onClick(3);
+
+        // A day later the first day has gone and another has been added at the end
+        ids.ids = new long[]{101, 102, 103, 104, 105};
+        state.confirmCheckedPositions();
+        assertTrue("Error: The checked day should be found at its new position",
+                state.isItemChecked(2));
+        assertFalse(state.isItemChecked(3));
+        assertEquals(1, ids.positionLookups);
+
+        // And gone altogether
+        ids.ids = new long[]{104, 105, 106};
+        state.confirmCheckedPositions();
+        assertEquals("Error: A day no longer there should be unchecked",
+                ItemChoiceState.NO_POSITION, state.getSelectedItemPosition());
+    }
+
+    public void testMultipleChoiceFollowsDataSetChange() {
+        long[] longList = new long[1000];
+        for (int i = 0; i < longList.length; i++) {
+            longList[i] = 1000 + i;
+        }
+        FakeItemIds ids = new FakeItemIds(longList);
+        ItemChoiceState state = new ItemChoiceState(ids);
+        state.setChoiceMode(AbsListView.CHOICE_MODE_MULTIPLE);
+        state.onClick(10);
+        state.onClick(500);
+        state.onClick(999);
+
+        // Drop the first 100 items, further than anything used to search for a moved item
+        ids.ids = Arrays.copyOfRange(longList, 100, longList.length);
+        state.confirmCheckedPositions();
+
+        assertEquals("Error: Only the items still there should stay checked",
+                2, state.getCheckedCount());
+        assertTrue(state.isItemChecked(400));
+        assertTrue(state.isItemChecked(899));
+        assertEquals("Error: Each checked item should be looked up once",
+                3, ids.positionLookups);
+    }
+
+    public void testItemNotPagedInStaysChecked() {
+        long[] longList = new long[200];
+        for (int i = 0; i < longList.length; i++) {
+            longList[i] = 1000 + i;
+        }
+        FakeItemIds ids = new FakeItemIds(longList);
+        ItemChoiceState state = new ItemChoiceState(ids);
+        state.setChoiceMode(AbsListView.CHOICE_MODE_MULTIPLE);
+        state.onClick(10);
+        state.onClick(150);
+
+        // After a reload only the first part of the list has been paged in again
+        ids.pagedInUpTo = 1100;
+        state.confirmCheckedPositions();
+        assertEquals("Error: An item not paged in should stay checked",
+                2, state.getCheckedCount());
+        assertTrue(state.isItemChecked(150));
+
+        // Once it's paged in it's found again, or forgotten if it's really gone
+        ids.pagedInUpTo = Long.MAX_VALUE;
+        ids.ids = Arrays.copyOfRange(longList, 0, 100);
+        state.confirmCheckedPositions();
+        assertEquals(1, state.getCheckedCount());
+        assertTrue(state.isItemChecked(10));
+    }
+
+    public void testChangingModeClears() {
+        ItemChoiceState state = new ItemChoiceState(new FakeItemIds(100, 101));
+        state.setChoiceMode(AbsListView.CHOICE_MODE_MULTIPLE);
+        state.onClick(0);
+        state.onClick(1);
+        state.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+        assertEquals(0, state.getCheckedCount());
+    }
+
+    public void testPositionIds() {
+        ItemChoiceState state = new ItemChoiceState(ItemChoiceState.POSITION_IDS);
+        state.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+        state.onClick(7);
+        state.confirmCheckedPositions();
+        assertTrue("Error: Without ids an item should stay at its position", state.isItemChecked(7));
+    }
+}
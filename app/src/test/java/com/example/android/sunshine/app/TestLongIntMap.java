@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import junit.framework.TestCase;
+
+public class TestLongIntMap extends TestCase {
+
+    public void testPutGetDelete() {
+        LongIntMap map = new LongIntMap();
+        // Out of order and past the initial capacity
+        long[] keys = {1420070400000L, 5, -3, 1420156800000L, 42, 7, 0};
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i);
+        }
+        assertEquals(keys.length, map.size());
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, map.get(keys[i], -1));
+        }
+        for (int i = 1; i < map.size(); i++) {
+            assertTrue("Error: Keys should be kept sorted", map.keyAt(i - 1) < map.keyAt(i));
+        }
+
+        map.put(42, 100);
+        assertEquals("Error: Putting an existing key should replace its value", 100, map.get(42, -1));
+        assertEquals(keys.length, map.size());
+
+        map.delete(42);
+        assertEquals(-1, map.get(42, -1));
+        assertTrue(map.indexOfKey(42) < 0);
+        assertEquals(keys.length - 1, map.size());
+
+        map.delete(12345);
+        assertEquals(keys.length - 1, map.size());
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(5, -1));
+    }
+
+    public void testSetValueAt() {
+        LongIntMap map = new LongIntMap();
+        map.put(10, 1);
+        map.put(20, 2);
+        map.setValueAt(map.indexOfKey(20), 5);
+        assertEquals(5, map.get(20, -1));
+        map.removeAt(0);
+        assertEquals(20, map.keyAt(0));
+        assertEquals(1, map.size());
+    }
+}
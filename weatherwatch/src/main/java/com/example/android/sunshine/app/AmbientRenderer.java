@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * Draws the ambient watch face from bitmaps rendered ahead of time, so a tick does no string
+ * formatting or text layout.
+ *
+ * The digits and the colon are rendered once into a one row alpha atlas, and the time is drawn
+ * by copying glyphs out of it.  The date and the temperatures only change a few times a day,
+ * so each is rendered into its own bitmap when it changes.  With low-bit ambient everything is
+ * rendered without anti-aliasing, so the bitmaps only hold fully on or off pixels.  Must only
+ * be used from the main thread.
+ */
+public class AmbientRenderer {
+
+    private static final String GLYPHS = "0123456789:";
+    private static final int COLON = 10;
+
+    /**
+     * Text rendered into a bitmap, redrawn only when the text changes.
+     */
+    private static final class Line {
+        String text;
+        Bitmap bitmap;
+        float ascent;
+
+        void set(String newText, Paint paint) {
+            if (newText.equals(text)) {
+                return;
+            }
+            text = newText;
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            Paint.FontMetrics metrics = paint.getFontMetrics();
+            ascent = metrics.ascent;
+            bitmap = Bitmap.createBitmap(Math.max(1, (int) Math.ceil(paint.measureText(newText))),
+                    Math.max(1, (int) Math.ceil(metrics.descent - metrics.ascent)),
+                    Bitmap.Config.ALPHA_8);
+            new Canvas(bitmap).drawText(newText, 0, -ascent, paint);
+        }
+
+        void draw(Canvas canvas, float x, float baseline, Paint blitPaint) {
+            if (bitmap != null) {
+                canvas.drawBitmap(bitmap, x, baseline + ascent, blitPaint);
+            }
+        }
+
+        void release() {
+            if (bitmap != null) {
+                bitmap.recycle();
+                bitmap = null;
+            }
+            text = null;
+        }
+    }
+
+    private final Paint mTimePaint;
+    private final Paint mTextPaint;
+    private final Paint mBlitPaint = new Paint();
+    private boolean mLowBit;
+    private boolean mDirty = true;
+
+    // The atlas holds one fixed width cell per glyph, drawn with the glyph's own advance
+    private Bitmap mAtlas;
+    private int mCellWidth;
+    private int mCellHeight;
+    private float mAscent;
+    private final float[] mAdvances = new float[GLYPHS.length()];
+    private final int[] mTimeGlyphs = new int[5];
+    private final Rect mSrc = new Rect();
+    private final RectF mDst = new RectF();
+
+    private final Paint mRenderTextPaint = new Paint();
+    private final Line mDateLine = new Line();
+    private final Line mLowLine = new Line();
+    private final Line mHighLine = new Line();
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("E, MMM d y",
+            Locale.getDefault());
+    private int mDateKey = -1;
+    private WeatherStore.Day mDay;
+
+    private float mTimeX;
+    private float mTimeY;
+    private float mDateX;
+    private float mDateY;
+    private float mLowX;
+    private float mHighX;
+    private float mTempY;
+
+    /**
+     * Renders with the look of the interactive face's paints, which are read again whenever
+     * the renderer is invalidated.
+     */
+    public AmbientRenderer(Paint timePaint, Paint textPaint) {
+        mTimePaint = timePaint;
+        mTextPaint = textPaint;
+        mBlitPaint.setFilterBitmap(false);
+    }
+
+    /**
+     * Throws away everything rendered so far, call when the paints' sizes or the low-bit mode
+     * change.
+     */
+    public void invalidate(boolean lowBit) {
+        mLowBit = lowBit;
+        mDirty = true;
+    }
+
+    /**
+     * Where the time, date and temperatures go, as baselines and left edges.
+     */
+    public void setPositions(float timeX, float timeY, float dateX, float dateY, float lowX,
+                             float highX, float tempY) {
+        mTimeX = timeX;
+        mTimeY = timeY;
+        mDateX = dateX;
+        mDateY = dateY;
+        mLowX = lowX;
+        mHighX = highX;
+        mTempY = tempY;
+    }
+
+    public void draw(Canvas canvas, Calendar calendar, WeatherStore.Day day) {
+        if (mDirty) {
+            prepare();
+        }
+        canvas.drawColor(Color.BLACK);
+
+        // H:MM, hours as Calendar.HOUR gives them like the interactive face
+        int hour = calendar.get(Calendar.HOUR);
+        int minute = calendar.get(Calendar.MINUTE);
+        int count = 0;
+        if (hour >= 10) {
+            mTimeGlyphs[count++] = hour / 10;
+        }
+        mTimeGlyphs[count++] = hour % 10;
+        mTimeGlyphs[count++] = COLON;
+        mTimeGlyphs[count++] = minute / 10;
+        mTimeGlyphs[count++] = minute % 10;
+        float x = mTimeX;
+        for (int i = 0; i < count; i++) {
+            int glyph = mTimeGlyphs[i];
+            mSrc.set(glyph * mCellWidth, 0, (glyph + 1) * mCellWidth, mCellHeight);
+            mDst.set(x, mTimeY + mAscent, x + mCellWidth, mTimeY + mAscent + mCellHeight);
+            canvas.drawBitmap(mAtlas, mSrc, mDst, mBlitPaint);
+            x += mAdvances[glyph];
+        }
+
+        int dateKey = calendar.get(Calendar.YEAR) * 1000 + calendar.get(Calendar.DAY_OF_YEAR);
+        if (dateKey != mDateKey) {
+            mDateKey = dateKey;
+            mDateFormat.setTimeZone(calendar.getTimeZone());
+            mDateLine.set(mDateFormat.format(calendar.getTime()).toUpperCase(), mRenderTextPaint);
+        }
+        mDateLine.draw(canvas, mDateX, mDateY, mBlitPaint);
+
+        if (day != null) {
+            if (day != mDay) {
+                mDay = day;
+                mLowLine.set("L: " + day.low, mRenderTextPaint);
+                mHighLine.set("H: " + day.high, mRenderTextPaint);
+            }
+            mLowLine.draw(canvas, mLowX, mTempY, mBlitPaint);
+            mHighLine.draw(canvas, mHighX, mTempY, mBlitPaint);
+        }
+    }
+
+    private void prepare() {
+        mDirty = false;
+        mBlitPaint.setColor(mTimePaint.getColor());
+
+        // Rendered in white, the blit paint's color tints them when drawn
+        Paint glyphPaint = new Paint(mTimePaint);
+        glyphPaint.setColor(Color.WHITE);
+        glyphPaint.setAntiAlias(!mLowBit);
+        Paint.FontMetrics metrics = glyphPaint.getFontMetrics();
+        mAscent = metrics.ascent;
+        mCellHeight = Math.max(1, (int) Math.ceil(metrics.descent - metrics.ascent));
+        glyphPaint.getTextWidths(GLYPHS, mAdvances);
+        float widest = 0;
+        for (float advance : mAdvances) {
+            widest = Math.max(widest, advance);
+        }
+        mCellWidth = Math.max(1, (int) Math.ceil(widest));
+
+        if (mAtlas != null) {
+            mAtlas.recycle();
+        }
+        mAtlas = Bitmap.createBitmap(mCellWidth * GLYPHS.length(), mCellHeight,
+                Bitmap.Config.ALPHA_8);
+        Canvas atlasCanvas = new Canvas(mAtlas);
+        for (int i = 0; i < GLYPHS.length(); i++) {
+            atlasCanvas.drawText(GLYPHS, i, i + 1, i * mCellWidth, -mAscent, glyphPaint);
+        }
+
+        mRenderTextPaint.set(mTextPaint);
+        mRenderTextPaint.setColor(Color.WHITE);
+        mRenderTextPaint.setAntiAlias(!mLowBit);
+        mDateLine.release();
+        mLowLine.release();
+        mHighLine.release();
+        mDateKey = -1;
+        mDay = null;
+    }
+
+    /**
+     * Frees the bitmaps, call when the engine is destroyed.
+     */
+    public void release() {
+        if (mAtlas != null) {
+            mAtlas.recycle();
+            mAtlas = null;
+        }
+        mDateLine.release();
+        mLowLine.release();
+        mHighLine.release();
+        mDirty = true;
+    }
+}
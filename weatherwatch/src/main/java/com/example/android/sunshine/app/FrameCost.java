@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+/**
+ * Adds up how long one way of drawing the watch face takes, so the interactive and ambient
+ * frames can be compared in the log.
+ */
+public class FrameCost {
+    private final String mName;
+    private int mFrames;
+    private long mTotalNanos;
+    private long mWorstNanos;
+
+    public FrameCost(String name) {
+        mName = name;
+    }
+
+    public void record(long nanos) {
+        mFrames++;
+        mTotalNanos += nanos;
+        mWorstNanos = Math.max(mWorstNanos, nanos);
+    }
+
+    public int getFrames() {
+        return mFrames;
+    }
+
+    public long getAverageMicros() {
+        return mFrames == 0 ? 0 : mTotalNanos / mFrames / 1000;
+    }
+
+    public long getWorstMicros() {
+        return mWorstNanos / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return mName + ": " + mFrames + " frames, average " + getAverageMicros() + "us, worst "
+                + getWorstMicros() + "us";
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+/**
+ * The watch face's link to the phone, held for as long as the face is the active one.
+ *
+ * Every request for weather data costs the phone an expedited sync, so one is only sent when
+ * the {@link WeatherStore} is older than its maximum age, and no sooner than a minimum
+ * interval after the last one in case the phone never answered.  Going invisible keeps the
+ * connection and the data listener, so the phone's pushes still arrive and coming back doesn't
+ * reconnect.  Counts connects and requests sent or held back so the churn can be checked.
+ * Must only be used from the main thread.
+ */
+public class WeatherDataConnection implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+    private static final String LOG_TAG = "JW";
+
+    private final GoogleApiClient mClient;
+    private final DataApi.DataListener mListener;
+    private final WeatherStore mWeatherStore;
+    private final long mMaxAgeMs;
+    private final long mMinRequestIntervalMs;
+
+    private boolean mStarted;
+    private long mLastRequestAt = -1;
+
+    private int mConnectCount;
+    private int mRequestsSent;
+    private int mRequestsSuppressed;
+
+    public WeatherDataConnection(Context context, DataApi.DataListener listener,
+                                 WeatherStore weatherStore, long maxAgeMs,
+                                 long minRequestIntervalMs) {
+        mClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .build();
+        mListener = listener;
+        mWeatherStore = weatherStore;
+        mMaxAgeMs = maxAgeMs;
+        mMinRequestIntervalMs = minRequestIntervalMs;
+    }
+
+    /**
+     * Connects, call when the engine is created.
+     */
+    public void start() {
+        mStarted = true;
+        connect();
+    }
+
+    /**
+     * Call when the face becomes visible.  Reconnects only if the connection was lost, and asks
+     * for new data only if the stored forecast has gone stale.
+     */
+    public void onVisible() {
+        if (!mStarted) {
+            return;
+        }
+        if (mClient.isConnected()) {
+            maybeRequestWeatherData();
+        } else {
+            connect();
+        }
+    }
+
+    /**
+     * Drops the listener and the connection, call when the engine is destroyed.
+     */
+    public void stop() {
+        mStarted = false;
+        if (mClient.isConnected()) {
+            Wearable.DataApi.removeListener(mClient, mListener);
+        }
+        mClient.disconnect();
+        Log.d(LOG_TAG, "connection stopped after " + mConnectCount + " connects, "
+                + mRequestsSent + " requests sent, " + mRequestsSuppressed + " suppressed");
+    }
+
+    private void connect() {
+        if (!mClient.isConnected() && !mClient.isConnecting()) {
+            mClient.connect();
+        }
+    }
+
+    public int getConnectCount() {
+        return mConnectCount;
+    }
+
+    public int getRequestsSent() {
+        return mRequestsSent;
+    }
+
+    public int getRequestsSuppressed() {
+        return mRequestsSuppressed;
+    }
+
+    @Override
+    public void onConnected(@Nullable Bundle bundle) {
+        mConnectCount++;
+        Log.d(LOG_TAG, "connection successful, " + mConnectCount + " so far");
+        Wearable.DataApi.addListener(mClient, mListener);
+        maybeRequestWeatherData();
+    }
+
+    @Override
+    public void onConnectionSuspended(int i) {
+        // The client reconnects by itself and the listener comes back with it
+        Log.d(LOG_TAG, "connection suspended");
+    }
+
+    @Override
+    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
+        Log.d(LOG_TAG, "connection failed");
+    }
+
+    private void maybeRequestWeatherData() {
+        if (!mWeatherStore.isOlderThan(mMaxAgeMs)) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (mLastRequestAt >= 0 && now - mLastRequestAt < mMinRequestIntervalMs) {
+            mRequestsSuppressed++;
+            Log.d(LOG_TAG, "holding back a data request, " + mRequestsSuppressed + " so far");
+            return;
+        }
+        mLastRequestAt = now;
+        mRequestsSent++;
+        requestWeatherData();
+    }
+
+    //Method to poll data from the app (great for 2-way communication)
+    private void requestWeatherData() {
+        Log.d(LOG_TAG, "requesting data from watch");
+        //Kudos to my reviewer for helping me with this code.
+        PutDataMapRequest putDataMapReq = PutDataMapRequest.create("/wear-weather");
+        putDataMapReq.getDataMap().putLong("Time",System.currentTimeMillis());
+        //Setting as urgent so there is no delay
+        PutDataRequest putDataReq = putDataMapReq.asPutDataRequest().setUrgent();
+
+        PendingResult<DataApi.DataItemResult> pendingResult = Wearable.DataApi.putDataItem(mClient, putDataReq);
+        pendingResult.setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+            @Override
+            public void onResult(DataApi.DataItemResult dataItemResult) {
+                Log.d(LOG_TAG, "Sending : " + dataItemResult.getStatus().isSuccess());
+            }
+        });
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.google.android.gms.wearable.DataMap;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * The last forecast the phone sent, kept in a small file so the watch face has weather to draw
+ * as soon as its engine is created, without waiting on the phone.
+ *
+ * The phone sends a few days at a time, so the face moves on to the next day by itself at
+ * midnight.  The file is a version, the time the forecast arrived and then one record per day,
+ * which is read back in well under a millisecond.  Must only be used from the main thread,
+ * saving happens in the background.
+ */
+public class WeatherStore {
+    private static final String LOG_TAG = "JW";
+
+    private static final String FILE_NAME = "weather_store.bin";
+    private static final int VERSION = 1;
+
+    /**
+     * One day of the forecast, high and low formatted by the phone in the user's units.
+     */
+    public static final class Day {
+        public final long date;
+        public final int weatherId;
+        public final String high;
+        public final String low;
+
+        Day(long date, int weatherId, String high, String low) {
+            this.date = date;
+            this.weatherId = weatherId;
+            this.high = high;
+            this.low = low;
+        }
+    }
+
+    private final AtomicFile mFile;
+    private Day[] mDays = new Day[0];
+    private long mReceivedAt;
+
+    public WeatherStore(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Reads back the last saved forecast, if there is one.  A missing or damaged file leaves the
+     * store empty.
+     */
+    public void load() {
+        FileInputStream in = null;
+        try {
+            in = mFile.openRead();
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != VERSION) {
+                return;
+            }
+            long receivedAt = data.readLong();
+            int count = data.readInt();
+            if (count < 0) {
+                return;
+            }
+            Day[] days = new Day[count];
+            for (int i = 0; i < count; i++) {
+                days[i] = new Day(data.readLong(), data.readInt(), data.readUTF(), data.readUTF());
+            }
+            mDays = days;
+            mReceivedAt = receivedAt;
+        } catch (FileNotFoundException e) {
+            // Nothing received yet
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Ignoring an unreadable weather store", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Already read
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the days out of a "/weather-info" data map.  A map from a phone which only sends
+     * today is kept as a single day.  Returns false if the map held no forecast.
+     */
+    public boolean update(DataMap map) {
+        Day[] days;
+        long[] dates = map.getLongArray("dates");
+        ArrayList<Integer> weatherIds = map.getIntegerArrayList("weatherIds");
+        String[] highs = map.getStringArray("highs");
+        String[] lows = map.getStringArray("lows");
+        if (dates != null && weatherIds != null && highs != null && lows != null) {
+            int count = Math.min(Math.min(dates.length, weatherIds.size()),
+                    Math.min(highs.length, lows.length));
+            days = new Day[count];
+            for (int i = 0; i < count; i++) {
+                days[i] = new Day(dates[i], weatherIds.get(i), highs[i], lows[i]);
+            }
+        } else if (map.containsKey("weatherId") && map.containsKey("high")
+                && map.containsKey("low")) {
+            days = new Day[]{new Day(0, map.getInt("weatherId"), map.getString("high"),
+                    map.getString("low"))};
+        } else {
+            Log.e(LOG_TAG, "no forecast received");
+            return false;
+        }
+        mDays = days;
+        mReceivedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Writes the forecast out in the background.  Saves are rare and tiny, and go through the
+     * serial executor so that two of them never write the file at once.
+     */
+    public void save() {
+        final Day[] days = mDays;
+        final long receivedAt = mReceivedAt;
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(days, receivedAt);
+            }
+        });
+    }
+
+    private void write(Day[] days, long receivedAt) {
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(VERSION);
+            data.writeLong(receivedAt);
+            data.writeInt(days.length);
+            for (Day day : days) {
+                data.writeLong(day.date);
+                data.writeInt(day.weatherId);
+                data.writeUTF(day.high);
+                data.writeUTF(day.low);
+            }
+            data.flush();
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Couldn't save the weather store", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    /**
+     * The day to show at the given time: the last one which has started by then, or the first
+     * if none has.  Returns null when the store is empty.
+     */
+    public Day getDayFor(long now) {
+        if (mDays.length == 0) {
+            return null;
+        }
+        Day day = mDays[0];
+        for (int i = 1; i < mDays.length && mDays[i].date <= now; i++) {
+            day = mDays[i];
+        }
+        return day;
+    }
+
+    /**
+     * Whether the forecast arrived longer than maxAgeMillis ago, or never did.
+     */
+    public boolean isOlderThan(long maxAgeMillis) {
+        return mDays.length == 0 || System.currentTimeMillis() - mReceivedAt > maxAgeMillis;
+    }
+}
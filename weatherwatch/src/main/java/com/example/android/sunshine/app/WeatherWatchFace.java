@@ -24,33 +24,23 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
-import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
 
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -89,9 +79,7 @@ public class WeatherWatchFace extends CanvasWatchFaceService {
         return new Engine();
     }
 
-    private class Engine extends CanvasWatchFaceService.Engine implements DataApi.DataListener,
-            GoogleApiClient.ConnectionCallbacks,
-            GoogleApiClient.OnConnectionFailedListener {
+    private class Engine extends CanvasWatchFaceService.Engine implements DataApi.DataListener {
 
         //final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
@@ -105,10 +93,9 @@ public class WeatherWatchFace extends CanvasWatchFaceService {
         Date mDate;
         SimpleDateFormat mDateFormat;
 
-        //Strings for high and low values
-        String high;
-        String low;
-        int weatherCode = 0;
+        //Last forecast from the phone, kept across restarts
+        WeatherStore mWeatherStore;
+        long mWeatherMaxAgeMs;
         int weatherResourceId = -1;
         boolean isRound = false;
 
@@ -122,8 +109,13 @@ public class WeatherWatchFace extends CanvasWatchFaceService {
         float mXImageOffset;
         float mYImageOffset;
 
-        //adding GoogleApiClient
-        private GoogleApiClient client;
+        //Connection to the phone, kept while this face is active
+        private WeatherDataConnection mConnection;
+
+        //Ambient frames come from pre-rendered bitmaps, both kinds of frame are timed
+        AmbientRenderer mAmbientRenderer;
+        final FrameCost mInteractiveCost = new FrameCost("interactive");
+        final FrameCost mAmbientCost = new FrameCost("ambient");
 
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
@@ -155,14 +147,17 @@ public class WeatherWatchFace extends CanvasWatchFaceService {
                     .setAcceptsTapEvents(true)
                     .build());
 
-            //Initializing the client
-            client = new GoogleApiClient.Builder(WeatherWatchFace.this)
-                    .addApi(Wearable.API)
-                    .addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this)
-                    .build();
+            //Draw whatever the phone last sent straight away, it's only asked again once stale
+            mWeatherStore = new WeatherStore(WeatherWatchFace.this);
+            mWeatherStore.load();
+            mWeatherMaxAgeMs = TimeUnit.MINUTES.toMillis(
+                    getResources().getInteger(R.integer.weather_max_age_minutes));
+
             //Try and connect on start up
-            client.connect();
+            mConnection = new WeatherDataConnection(WeatherWatchFace.this, this, mWeatherStore,
+                    mWeatherMaxAgeMs, TimeUnit.MINUTES.toMillis(getResources()
+                            .getInteger(R.integer.weather_min_request_interval_minutes)));
+            mConnection.start();
 
             Resources resources = WeatherWatchFace.this.getResources();
 
@@ -181,12 +176,16 @@ public class WeatherWatchFace extends CanvasWatchFaceService {
             mDatePaint = new Paint();
             mDatePaint = createTextPaint(resources.getColor(R.color.digital_text));
 
+            mAmbientRenderer = new AmbientRenderer(mTimePaint, mDatePaint);
+
             mCalendar = Calendar.getInstance();
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mConnection.stop();
+            mAmbientRenderer.release();
             super.onDestroy();
         }
 
@@ -208,11 +207,10 @@ public class WeatherWatchFace extends CanvasWatchFaceService {
                 // Update time zone in case it changed while we weren't visible.
                 mCalendar.setTimeZone(TimeZone.getDefault());
                 invalidate();
+
+                //Stays connected while hidden, this only catches up if the data went stale
+                mConnection.onVisible();
             } else {
-                //Since the visibility changed, we should disconnect the client
-                if (client != null && client.isConnected()) {
-                    client.disconnect();
-                }
                 unregisterReceiver();
             }
 
@@ -266,12 +264,19 @@ public class WeatherWatchFace extends CanvasWatchFaceService {
                     ? R.dimen.digital_temp_x_offset_round : R.dimen.digital_temp_x_offset);
             mXImageOffset = resources.getDimension(isRound
                     ? R.dimen.digital_image_x_offset_round : R.dimen.digital_image_x_offset);
+
+            //Same places as onDraw uses
+            mAmbientRenderer.setPositions(mXTimeOffset + 20, mYTimeOffset, mXDateOffset + 10,
+                    mYDateOffset + 20, mXTempOffset, mXTempOffset + (isRound ? 80 : 90),
+                    mYTempOffset);
+            mAmbientRenderer.invalidate(mLowBitAmbient);
         }
 
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            mAmbientRenderer.invalidate(mLowBitAmbient);
         }
 
         @Override
@@ -288,6 +293,7 @@ public class WeatherWatchFace extends CanvasWatchFaceService {
                 if (mLowBitAmbient) {
                     mTimePaint.setAntiAlias(!inAmbientMode);
                 }
+                Log.d("JW", "frame cost " + mInteractiveCost + ", " + mAmbientCost);
                 invalidate();
             }
 
@@ -322,16 +328,24 @@ public class WeatherWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            // Draw the background.
+            long startNanos = System.nanoTime();
+            long now = System.currentTimeMillis();
+            mCalendar.setTimeInMillis(now);
             if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
+                //Only blits, no text layout on a tick
+                mAmbientRenderer.draw(canvas, mCalendar, mWeatherStore.getDayFor(now));
+                mAmbientCost.record(System.nanoTime() - startNanos);
             } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
+                drawInteractive(canvas, bounds, now);
+                mInteractiveCost.record(System.nanoTime() - startNanos);
             }
+        }
+
+        private void drawInteractive(Canvas canvas, Rect bounds, long now) {
+            // Draw the background.
+            canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
 
             // Draw H:MM (I prefer 12 hr mode)
-            long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
 
             String text = String.format("%d:%02d", mCalendar.get(Calendar.HOUR),
                     mCalendar.get(Calendar.MINUTE));
@@ -345,27 +359,28 @@ public class WeatherWatchFace extends CanvasWatchFaceService {
             String currentDate = mDateFormat.format(mDate).toUpperCase();
             canvas.drawText(currentDate, mXDateOffset+10, mYDateOffset+20, mDatePaint);
 
-            //Draw the weather
+            //Draw the weather, moving on to the next stored day after midnight
+            WeatherStore.Day day = mWeatherStore.getDayFor(now);
+            if (day == null) {
+                return;
+            }
             //set the icon to use
-            weatherResourceId = getWeatherResourceFromCode(weatherCode);
+            weatherResourceId = getWeatherResourceFromCode(day.weatherId);
 
-            //Don't show image in Ambient mode
-            if (!isInAmbientMode() && weatherResourceId != -1) {
+            if (weatherResourceId != -1) {
                 //Get the resource, has to be in bitmap for for the canvas to draw
                 Bitmap iconDrawable = BitmapFactory.decodeResource(getResources(), weatherResourceId);
                 canvas.drawBitmap(iconDrawable, mXImageOffset, mYImageOffset, null);
             }
 
-            //Set the high and low values
-            if(high != null && low != null) {
-                canvas.drawText(low, mXTempOffset, mYTempOffset, mDatePaint);
+            //Set the high and low values, with some basic formatting
+            canvas.drawText("L: " + day.low, mXTempOffset, mYTempOffset, mDatePaint);
 
-                //for some reason, I needed extra padding for square faces, so I added this condition
-                if (isRound) {
-                    canvas.drawText(high, mXTempOffset + 80, mYTempOffset, mDatePaint);
-                } else{
-                    canvas.drawText(high, mXTempOffset + 90, mYTempOffset, mDatePaint);
-                }
+            //for some reason, I needed extra padding for square faces, so I added this condition
+            if (isRound) {
+                canvas.drawText("H: " + day.high, mXTempOffset + 80, mYTempOffset, mDatePaint);
+            } else{
+                canvas.drawText("H: " + day.high, mXTempOffset + 90, mYTempOffset, mDatePaint);
             }
         }
 
@@ -450,25 +465,6 @@ public class WeatherWatchFace extends CanvasWatchFaceService {
             return -1;
         }
 
-        //Implementing the Listener methods
-        @Override
-        public void onConnected(@Nullable Bundle bundle) {
-            Log.d("JW", "connection successful");
-            Wearable.DataApi.addListener(client, this);
-            //We have a new connection, so lets get new data
-            requestWeatherData();
-        }
-
-        @Override
-        public void onConnectionSuspended(int i) {
-            Log.d("JW", "connection suspended");
-        }
-
-        @Override
-        public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
-            Log.d("JW", "connection failed");
-        }
-
         @Override
         public void onDataChanged(DataEventBuffer dataEventBuffer) {
             Log.e("JW", "in onDataChanged");
@@ -482,48 +478,14 @@ public class WeatherWatchFace extends CanvasWatchFaceService {
                         //Get the map
                         DataMap map = DataMapItem.fromDataItem(event.getDataItem()).getDataMap();
 
-                        //Double checking ALL THE VARIABLES
-                        if (map.containsKey("weatherId")){
-                            weatherCode = map.getInt("weatherId");
-                        } else{
-                            Log.e("JW", "no weatherId received");
-                        }
-
-                        //Added some basic formatting
-                        if (map.containsKey("high")){
-                            high = "H: "+map.getString("high");
-                        } else{
-                            Log.e("JW", "no high received");
-                        }
-
-                        //Added some basic formatting
-                        if (map.containsKey("low")){
-                            low = "L: "+ map.getString("low");
-                        } else{
-                            Log.e("JW", "no low received");
+                        //Keep it for next time we start without the phone
+                        if (mWeatherStore.update(map)) {
+                            mWeatherStore.save();
                         }
                     }
                 }
             }
             invalidate();
         }
-
-        //Method to poll data from the app (great for 2-way communication)
-        private void requestWeatherData() {
-            Log.d("JW", "requesting data from watch");
-            //Kudos to my reviewer for helping me with this code.
-            PutDataMapRequest putDataMapReq = PutDataMapRequest.create("/wear-weather");
-            putDataMapReq.getDataMap().putLong("Time",System.currentTimeMillis());
-            //Setting as urgent so there is no delay
-            PutDataRequest putDataReq = putDataMapReq.asPutDataRequest().setUrgent();
-
-            PendingResult<DataApi.DataItemResult> pendingResult = Wearable.DataApi.putDataItem(client, putDataReq);
-            pendingResult.setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                @Override
-                public void onResult(DataApi.DataItemResult dataItemResult) {
-                    Log.d("JW", "Sending : " + dataItemResult.getStatus().isSuccess());
-                }
-            });
-        }
     }
 }